@@ -0,0 +1,373 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// Results of the discovery and exception discovery phases, saved in a directory
+// between runs so that a run with the same inputs can skip those phases.
+// Discovery results are keyed by the SHA-256 of each input jar and the Java version.
+// Exception discovery results are also keyed by the few mappings that change
+// which classes look obfuscated, so renaming classes in the mappings doesn't
+// invalidate them.
+class AnalysisCache {
+	
+	private static final int MAGIC = 0x53524743;
+	private static final int VERSION = 3;
+	
+	private final File dir;
+	
+	AnalysisCache(File dir) throws IOException {
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can't create cache directory "+dir);
+		this.dir = dir;
+	}
+	
+	static String getDiscoveryKey(List<File> jars) throws IOException {
+		MessageDigest key = newDigest();
+		update(key, "discovery " + VERSION + " " + System.getProperty("java.version"));
+		for(File f : jars)
+			key.update(hashFile(f));
+		return toHex(key.digest());
+	}
+	
+	// The library index depends on the runtime library too, which the version might not identify.
+	static String getLibraryKey(List<File> jars) throws IOException {
+		MessageDigest key = newDigest();
+		update(key, "library " + VERSION + " " + System.getProperty("java.version") + " " + System.getProperty("java.home"));
+		for(File f : jars)
+			key.update(hashFile(f));
+		return toHex(key.digest());
+	}
+	
+	static String getExceptionKey(String discoveryKey, Collection<String> obfuscationOverrides) {
+		MessageDigest key = newDigest();
+		update(key, "exceptions " + VERSION + " " + discoveryKey);
+		for(String s : obfuscationOverrides)
+			update(key, s);
+		return toHex(key.digest());
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void update(MessageDigest md, String s) {
+		md.update(s.getBytes(StandardCharsets.UTF_8));
+		md.update((byte)0);
+	}
+	
+	private static byte[] hashFile(File f) throws IOException {
+		MessageDigest md = newDigest();
+		try (InputStream in = new FileInputStream(f)) {
+			byte[] buffer = new byte[65536];
+			int n;
+			while((n = in.read(buffer)) > 0)
+				md.update(buffer, 0, n);
+		}
+		return md.digest();
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder rv = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes)
+			rv.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		return rv.toString();
+	}
+	
+	
+	
+	// Strings are written once and then referred to by index.
+	private static class Output extends DataOutputStream {
+		private final Map<String, Integer> strings = new HashMap<>();
+		
+		Output(File file) throws IOException {
+			super(new BufferedOutputStream(new FileOutputStream(file), 65536));
+			writeInt(MAGIC);
+			writeInt(VERSION);
+		}
+		
+		void writeString(String s) throws IOException {
+			Integer index = strings.get(s);
+			if(index != null) {
+				writeInt(index);
+				return;
+			}
+			writeInt(-1);
+			writeUTF(s);
+			strings.put(s, strings.size());
+		}
+	}
+	
+	private static class Input extends DataInputStream {
+		private final List<String> strings = new ArrayList<>();
+		
+		Input(File file) throws IOException {
+			super(new BufferedInputStream(new FileInputStream(file), 65536));
+		}
+		
+		// Returns false if the file isn't a cache file from this version
+		boolean readHeader() throws IOException {
+			return readInt() == MAGIC && readInt() == VERSION;
+		}
+		
+		String readString() throws IOException {
+			int index = readInt();
+			if(index >= 0)
+				return strings.get(index);
+			String s = readUTF();
+			strings.add(s);
+			return s;
+		}
+	}
+	
+	// Cache files are written to a new temporary file next to them, so runs that share the
+	// cache directory never write to the same file, and then moved into place.
+	static File createTemp(File file) throws IOException {
+		return File.createTempFile(file.getName() + ".", ".tmp", file.getParentFile());
+	}
+	
+	// Replaces the file in one step, so an interrupted run doesn't leave a broken cache file
+	// behind, and readers see either the old file or the new one, never no file at all.
+	static void commit(File temp, File file) throws IOException {
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+	
+	private File getFile(String phase, String key) {
+		return new File(dir, phase + "-" + key + ".bin");
+	}
+	
+	File getLibraryIndexFile(String key) {
+		return getFile("library", key);
+	}
+	
+	
+	
+	// Saves allMethods (after undiscovered methods have been removed), the method groups,
+	// the derived methods from methodGraph, discoveredFields and the enum constants.
+	void saveDiscovery(String key, Map<Main.FieldIdentifier, String> enumFields) throws IOException {
+		File file = getFile("discovery", key);
+		File temp = createTemp(file);
+		
+		try (Output out = new Output(temp)) {
+			Map<Main.MethodDetails, Integer> groupIndex = new HashMap<>();
+			
+			MethodGraph graph = Main.methodGraph;
+			out.writeInt(graph.methods.length);
+			for(Main.MethodDetails md : graph.methods) {
+				Main.MethodDetails root = Main.findGroupRoot(md);
+				Integer group = groupIndex.get(root);
+				if(group == null)
+					groupIndex.put(root, group = groupIndex.size());
+				
+				out.writeString(md.ident.getOwner());
+				out.writeString(md.ident.getName());
+				out.writeString(md.ident.getDesc());
+				out.writeInt(group);
+			}
+			
+			for(int m = 0; m < graph.methods.length; m++) {
+				out.writeInt(graph.derivedStart[m + 1] - graph.derivedStart[m]);
+				for(int k = graph.derivedStart[m]; k < graph.derivedStart[m + 1]; k++)
+					out.writeInt(graph.derived[k]);
+			}
+			
+			out.writeInt(Main.discoveredFields.size());
+			for(Main.FieldIdentifier f : Main.discoveredFields)
+				writeField(out, f);
+			
+			out.writeInt(enumFields.size());
+			for(Map.Entry<Main.FieldIdentifier, String> e : enumFields.entrySet()) {
+				writeField(out, e.getKey());
+				out.writeString(e.getValue());
+			}
+		} catch(IOException | RuntimeException e) {
+			temp.delete();
+			throw e;
+		}
+		
+		commit(temp, file);
+	}
+	
+	// Fills in the same tables as saveDiscovery saves, and Main.overridePairs to build the graph from.
+	// Returns false, and changes nothing, if there is no cached copy.
+	boolean loadDiscovery(String key, Map<Main.FieldIdentifier, String> enumFields) throws IOException {
+		File file = getFile("discovery", key);
+		if(!file.isFile())
+			return false;
+		
+		try (Input in = new Input(file)) {
+			if(!in.readHeader())
+				return false;
+			
+			int n = in.readInt();
+			Main.MethodDetails[] methods = new Main.MethodDetails[n];
+			List<Main.MethodDetails> groupRoots = new ArrayList<>();
+			
+			for(int k = 0; k < n; k++) {
+				MethodIdentifier ident = new MethodIdentifier(in.readString(), in.readString(), in.readString());
+				int group = in.readInt();
+				
+				methods[k] = Main.getMethod(ident);
+				methods[k].discovered = true;
+				
+				if(group == groupRoots.size())
+					groupRoots.add(methods[k]);
+				else
+					Main.mergeGroup(groupRoots.get(group), methods[k]);
+			}
+			
+			for(int k = 0; k < n; k++) {
+				int nDerived = in.readInt();
+				for(int i = 0; i < nDerived; i++) {
+					Main.overridePairs.add(methods[k]);
+					Main.overridePairs.add(methods[in.readInt()]);
+				}
+			}
+			
+			n = in.readInt();
+			for(int k = 0; k < n; k++)
+				Main.discoveredFields.add(readField(in));
+			
+			n = in.readInt();
+			for(int k = 0; k < n; k++) {
+				Main.FieldIdentifier f = readField(in);
+				enumFields.put(f, in.readString());
+			}
+		}
+		
+		return true;
+	}
+	
+	private static void writeField(Output out, Main.FieldIdentifier f) throws IOException {
+		out.writeString(f.getOwner());
+		out.writeString(f.getName());
+		out.writeString(f.getDesc());
+	}
+	
+	private static Main.FieldIdentifier readField(Input in) throws IOException {
+		return new Main.FieldIdentifier(in.readString(), in.readString(), in.readString());
+	}
+	
+	
+	
+	// Saves the try blocks and their lists, each method's direct exceptions, and the
+	// edges in methodGraph, as they are at the end of exception discovery.
+	// Methods are referred to by their index in methodGraph, which is the same
+	// as in the discovery results this depends on.
+	void saveExceptions(String key) throws IOException {
+		File file = getFile("exceptions", key);
+		File temp = createTemp(file);
+		
+		try (Output out = new Output(temp)) {
+			MethodGraph graph = Main.methodGraph;
+			out.writeInt(graph.methods.length);
+			
+			out.writeInt(graph.tryBlocks.size());
+			for(Main.TryBlock tb : graph.tryBlocks) {
+				out.writeInt(tb.method.index);
+				out.writeString(tb.catches.getName());
+				out.writeBoolean(tb.isReachable);
+			}
+			
+			// list 0 is always empty
+			out.writeInt(graph.getNumTryLists());
+			for(int l = 1; l < graph.getNumTryLists(); l++) {
+				out.writeInt(graph.tryListStart[l + 1] - graph.tryListStart[l]);
+				for(int k = graph.tryListStart[l]; k < graph.tryListStart[l + 1]; k++)
+					out.writeInt(graph.tryLists[k]);
+			}
+			
+			for(int m = 0; m < graph.methods.length; m++) {
+				Main.MethodDetails md = graph.methods[m];
+				out.writeInt(md.exceptionOrder.length);
+				for(int id : md.exceptionOrder)
+					out.writeString(Main.exceptionTypes.get(id).getName());
+				
+				out.writeInt(graph.calleeStart[m + 1] - graph.calleeStart[m]);
+				for(int k = graph.calleeStart[m]; k < graph.calleeStart[m + 1]; k++) {
+					out.writeInt(graph.callee[k]);
+					out.writeInt(graph.calleeTryList[k]);
+				}
+			}
+		} catch(IOException | RuntimeException e) {
+			temp.delete();
+			throw e;
+		}
+		
+		commit(temp, file);
+	}
+	
+	// Adds the try blocks and edges to methodGraph, which still needs finishEdges.
+	// Returns false, and changes nothing, if there is no cached copy.
+	boolean loadExceptions(String key, ClassHierarchy hierarchy) throws IOException, ClassNotFoundException {
+		File file = getFile("exceptions", key);
+		if(!file.isFile())
+			return false;
+		
+		try (Input in = new Input(file)) {
+			if(!in.readHeader())
+				return false;
+			
+			MethodGraph graph = Main.methodGraph;
+			if(in.readInt() != graph.methods.length)
+				throw new IOException("Cached exception discovery results don't match the discovery results");
+			
+			int n = in.readInt();
+			for(int k = 0; k < n; k++) {
+				Main.TryBlock tb = new Main.TryBlock();
+				tb.method = graph.methods[in.readInt()];
+				tb.catches = hierarchy.get(in.readString());
+				tb.isReachable = in.readBoolean();
+				graph.addTryBlock(tb);
+			}
+			
+			n = in.readInt();
+			for(int l = 1; l < n; l++) {
+				List<Main.TryBlock> list = new ArrayList<>();
+				int size = in.readInt();
+				for(int k = 0; k < size; k++)
+					list.add(graph.tryBlocks.get(in.readInt()));
+				graph.addTryList(list);
+			}
+			
+			for(int m = 0; m < graph.methods.length; m++) {
+				Main.MethodDetails md = graph.methods[m];
+				// saved in the order they were found, so interning them in file order gives the ids discovery gave them
+				n = in.readInt();
+				for(int k = 0; k < n; k++)
+					md.addException(Main.exceptionTypes.intern(hierarchy.get(in.readString())));
+				
+				n = in.readInt();
+				for(int k = 0; k < n; k++)
+					graph.addEdge(m, in.readInt(), in.readInt());
+			}
+		}
+		
+		return true;
+	}
+}
@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+// Strongly connected components of the graph formed by the callee edges of a MethodGraph
+// (from each method to the methods it gets exceptions from).
+// Components are in reverse topological order: each component comes after
+// every component it has edges to, so a method's callees are finished before it.
+class CallGraph {
+	
+	final List<List<Main.MethodDetails>> components = new ArrayList<>();
+	
+	// by method index
+	private final int[] componentOf;
+	private final boolean[] cyclic;
+	
+	private CallGraph(MethodGraph methodGraph) {
+		Main.MethodDetails[] nodes = methodGraph.methods;
+		
+		// Tarjan's algorithm, with an explicit stack since call chains can be very deep
+		int n = nodes.length;
+		componentOf = new int[n];
+		int[] index = new int[n];
+		int[] lowlink = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int[] callStack = new int[n];
+		int[] nextEdge = new int[n];
+		int sp = 0, csp = 0, nextIndex = 0;
+		List<Boolean> cyclic = new ArrayList<>();
+		
+		Arrays.fill(index, -1);
+		
+		for(int root = 0; root < n; root++) {
+			if(index[root] != -1)
+				continue;
+			
+			index[root] = lowlink[root] = nextIndex++;
+			stack[sp++] = root;
+			onStack[root] = true;
+			callStack[csp++] = root;
+			
+			while(csp > 0) {
+				int v = callStack[csp - 1];
+				int edge = methodGraph.calleeStart[v] + nextEdge[v];
+				
+				if(edge < methodGraph.calleeStart[v + 1]) {
+					nextEdge[v]++;
+					int w = methodGraph.callee[edge];
+					
+					if(index[w] == -1) {
+						index[w] = lowlink[w] = nextIndex++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						callStack[csp++] = w;
+					} else if(onStack[w])
+						lowlink[v] = Math.min(lowlink[v], index[w]);
+				
+				} else {
+					csp--;
+					if(csp > 0) {
+						int u = callStack[csp - 1];
+						lowlink[u] = Math.min(lowlink[u], lowlink[v]);
+					}
+					
+					if(lowlink[v] == index[v]) {
+						// v is the root of a component
+						List<Main.MethodDetails> component = new ArrayList<>();
+						int w;
+						do {
+							w = stack[--sp];
+							onStack[w] = false;
+							component.add(nodes[w]);
+							componentOf[w] = components.size();
+						} while(w != v);
+						
+						Collections.reverse(component);
+						components.add(component);
+						cyclic.add(component.size() > 1 || hasSelfLoop(methodGraph, v));
+					}
+				}
+			}
+		}
+		
+		this.cyclic = new boolean[cyclic.size()];
+		for(int k = 0; k < this.cyclic.length; k++)
+			this.cyclic[k] = cyclic.get(k);
+	}
+	
+	private static boolean hasSelfLoop(MethodGraph methodGraph, int m) {
+		for(int k = methodGraph.calleeStart[m]; k < methodGraph.calleeStart[m + 1]; k++)
+			if(methodGraph.callee[k] == m)
+				return true;
+		return false;
+	}
+	
+	static CallGraph build(MethodGraph methodGraph) {
+		return new CallGraph(methodGraph);
+	}
+	
+	// Returns the index of the method's component, or -1 if the method isn't in the graph.
+	int getComponent(Main.MethodDetails md) {
+		return md.index < 0 ? -1 : componentOf[md.index];
+	}
+	
+	// True if the component contains a cycle (more than one method, or a method that depends on itself).
+	boolean isCyclic(int component) {
+		return cyclic[component];
+	}
+	
+	int getNumCyclicComponents() {
+		int rv = 0;
+		for(boolean b : cyclic)
+			if(b)
+				rv++;
+		return rv;
+	}
+	
+	int getLargestComponentSize() {
+		int rv = 0;
+		for(List<Main.MethodDetails> c : components)
+			rv = Math.max(rv, c.size());
+		return rv;
+	}
+}
@@ -0,0 +1,189 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+
+// Class hierarchy and member model read directly from class file headers,
+// so that classes never need to be defined in the JVM.
+// Class names are in the same format as Class.getName().
+public class ClassHierarchy implements Closeable {
+	
+	private final ClassLoader parent;
+	private final List<MappedJar> jars = new ArrayList<>();
+	// null if this hierarchy parses every class itself
+	private final ClassModelCache models;
+	// classes from the parent loader and the jars that were indexed, or null
+	private final LibraryIndex index;
+	private final ConcurrentHashMap<String, ClassInfo> classes = new ConcurrentHashMap<>();
+	
+	// Classes by id. Only grows, and a class is always in the array before it is in the map,
+	// so readers that got an id from a ClassInfo can index whatever array they see.
+	private volatile ClassInfo[] byId = new ClassInfo[256];
+	private int numClasses;
+	
+	// Classes are looked up in the same order as a URLClassLoader over the given jars
+	// would: first through the parent loader, then in each jar in order.
+	// The index, if any, must have been built from the same parent loader and a prefix of the
+	// same jars, so that a class found in it is the one that would have been found by reading the jars.
+	public ClassHierarchy(ClassLoader parent, List<File> jarFiles, ClassModelCache models, LibraryIndex index) throws IOException {
+		this.parent = parent;
+		this.models = models;
+		this.index = index;
+		for(File f : jarFiles)
+			jars.add(new MappedJar(f));
+	}
+	
+	@Override
+	public void close() throws IOException {
+		for(MappedJar jar : jars)
+			jar.close();
+	}
+	
+	// Returns the contents of the class file, or null if it doesn't exist.
+	public byte[] getClassBytes(String name) throws IOException {
+		String path = name.replace('.', '/') + ".class";
+		
+		InputStream in = (parent == null ? null : parent.getResourceAsStream(path));
+		if(in != null)
+			return readFully(in);
+		
+		for(MappedJar jar : jars) {
+			byte[] bytes = jar.read(path);
+			if(bytes != null)
+				return bytes;
+		}
+		return null;
+	}
+	
+	private static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = in.read(buffer)) > 0)
+				baos.write(buffer, 0, n);
+			return baos.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	// Returns null if the class doesn't exist.
+	public ClassInfo find(String name) throws ClassNotFoundException {
+		ClassInfo ci = classes.get(name);
+		if(ci != null)
+			return ci;
+		
+		if(name.startsWith("[")) {
+			ci = new ClassInfo(this, name, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_ABSTRACT, "java.lang.Object",
+				new String[] {"java.lang.Cloneable", "java.io.Serializable"},
+				Collections.<MemberInfo>emptyList(), Collections.<MemberInfo>emptyList());
+		} else if(index != null && (ci = index.find(name)) != null) {
+			ci = new ClassInfo(this, ci.name, ci.access, ci.superName, ci.interfaces, ci.methods, ci.fields);
+			
+		} else {
+			byte[] bytes;
+			try {
+				bytes = getClassBytes(name);
+			} catch(IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+			if(bytes == null)
+				return null;
+			ci = readClass(bytes);
+		}
+		
+		return register(ci);
+	}
+	
+	// Gives the class an id and adds it to the table, unless another thread got there first.
+	// Every thread sees the same ClassInfo for each name.
+	private synchronized ClassInfo register(ClassInfo ci) {
+		ClassInfo existing = classes.get(ci.name);
+		if(existing != null)
+			return existing;
+		
+		if(numClasses == byId.length)
+			byId = Arrays.copyOf(byId, numClasses * 2);
+		ci.id = numClasses;
+		byId[numClasses++] = ci;
+		classes.put(ci.name, ci);
+		return ci;
+	}
+	
+	// Same as byId[supertype].isAssignableFrom(byId[type]), in constant time
+	// once the type's ancestors have been computed.
+	boolean isSubtype(int type, int supertype) throws ClassNotFoundException {
+		return byId[type].getAncestorIds().get(supertype);
+	}
+	
+	public ClassInfo get(String name) throws ClassNotFoundException {
+		ClassInfo ci = find(name);
+		if(ci == null)
+			throw new ClassNotFoundException(name);
+		return ci;
+	}
+	
+	private ClassInfo readClass(byte[] bytes) {
+		if(models == null)
+			return parseClass(this, bytes);
+		
+		ClassInfo model = models.get(bytes);
+		return new ClassInfo(this, model.name, model.access, model.superName, model.interfaces, model.methods, model.fields);
+	}
+	
+	static ClassInfo parseClass(ClassHierarchy hierarchy, byte[] bytes) {
+		ClassNode cn = new ClassNode();
+		new ClassReader(bytes).accept(cn, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		
+		List<MemberInfo> methods = new ArrayList<>(cn.methods.size());
+		for(MethodNode mn : cn.methods) {
+			String[] exceptions = new String[mn.exceptions.size()];
+			for(int k = 0; k < exceptions.length; k++)
+				exceptions[k] = mn.exceptions.get(k).replace('/', '.');
+			methods.add(new MemberInfo(mn.name, mn.desc, mn.access, exceptions));
+		}
+		
+		List<MemberInfo> fields = new ArrayList<>(cn.fields.size());
+		for(FieldNode fn : cn.fields)
+			fields.add(new MemberInfo(fn.name, fn.desc, fn.access, null));
+		
+		String[] interfaces = new String[cn.interfaces.size()];
+		for(int k = 0; k < interfaces.length; k++)
+			interfaces[k] = cn.interfaces.get(k).replace('/', '.');
+		
+		return new ClassInfo(hierarchy, cn.name.replace('/', '.'), cn.access, cn.superName == null ? null : cn.superName.replace('/', '.'), interfaces, methods, fields);
+	}
+	
+	boolean isMoreSpecificReturnType(String oldDesc, String newDesc) throws ClassNotFoundException {
+		if(oldDesc.equals(newDesc))
+			return false;
+		String oldName = descToName(oldDesc), newName = descToName(newDesc);
+		if(oldName == null || newName == null)
+			return false; // primitive types are only assignable from themselves
+		ClassInfo oldType = find(oldName), newType = find(newName);
+		return oldType != null && newType != null && oldType.isAssignableFrom(newType);
+	}
+	
+	// Converts a field descriptor to a class name, or returns null for primitive types
+	static String descToName(String desc) {
+		switch(desc.charAt(0)) {
+		case 'L': return desc.substring(1, desc.length() - 1).replace('/', '.');
+		case '[': return desc.replace('/', '.');
+		default: return null;
+		}
+	}
+}
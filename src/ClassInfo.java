@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Opcodes;
+
+
+class ClassInfo {
+	final ClassHierarchy hierarchy;
+	final String name;
+	final int access;
+	final String superName;
+	final String[] interfaces;
+	final List<MemberInfo> methods;
+	final List<MemberInfo> fields;
+	
+	// assigned by the hierarchy; unique within it
+	int id;
+	
+	private volatile List<ClassInfo> allSupers;
+	private volatile Map<String, MemberInfo> methodsBySignature;
+	private volatile BitSet ancestorIds;
+	
+	ClassInfo(ClassHierarchy hierarchy, String name, int access, String superName, String[] interfaces, List<MemberInfo> methods, List<MemberInfo> fields) {
+		this.hierarchy = hierarchy;
+		this.name = name;
+		this.access = access;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.methods = methods;
+		this.fields = fields;
+	}
+	
+	String getName() {
+		return name;
+	}
+	
+	boolean isInterface() {
+		return (access & Opcodes.ACC_INTERFACE) != 0;
+	}
+	
+	boolean isArray() {
+		return name.startsWith("[");
+	}
+	
+	boolean isEnum() {
+		return (access & Opcodes.ACC_ENUM) != 0 && "java.lang.Enum".equals(superName);
+	}
+	
+	// Like Class.getSuperclass, this is null for interfaces and java.lang.Object.
+	ClassInfo getSuperclass() throws ClassNotFoundException {
+		if(superName == null || isInterface())
+			return null;
+		return hierarchy.get(superName);
+	}
+	
+	ClassInfo[] getInterfaces() throws ClassNotFoundException {
+		ClassInfo[] rv = new ClassInfo[interfaces.length];
+		for(int k = 0; k < interfaces.length; k++)
+			rv[k] = hierarchy.get(interfaces[k]);
+		return rv;
+	}
+	
+	// Returns every supertype of this class, without duplicates.
+	// Supertypes are in depth-first order (superclass first, then interfaces),
+	// so a type always comes after the type it was inherited through, and
+	// searches that stop at the first match see the same order as a plain
+	// recursive walk would.
+	// Computed once per class; the returned list is immutable and can be
+	// shared between threads.
+	List<ClassInfo> getAllSupers() throws ClassNotFoundException {
+		List<ClassInfo> rv = allSupers;
+		if(rv != null)
+			return rv;
+		
+		Set<ClassInfo> supers = new LinkedHashSet<>();
+		ClassInfo sc = getSuperclass();
+		if(sc != null) {
+			supers.add(sc);
+			supers.addAll(sc.getAllSupers());
+		}
+		for(ClassInfo i : getInterfaces()) {
+			supers.add(i);
+			supers.addAll(i.getAllSupers());
+		}
+		
+		// if two threads get here at once they compute the same list, so it
+		// doesn't matter which one wins
+		rv = Collections.unmodifiableList(new ArrayList<>(supers));
+		allSupers = rv;
+		return rv;
+	}
+	
+	// Ids of every type this class is assignable to: itself, its supertypes, and
+	// java.lang.Object (which interfaces don't list as a supertype).
+	BitSet getAncestorIds() throws ClassNotFoundException {
+		BitSet rv = ancestorIds;
+		if(rv != null)
+			return rv;
+		
+		rv = new BitSet();
+		rv.set(id);
+		rv.set(hierarchy.get("java.lang.Object").id);
+		for(ClassInfo sc : getAllSupers())
+			rv.set(sc.id);
+		
+		ancestorIds = rv;
+		return rv;
+	}
+	
+	// Same lookup rules as Class.getDeclaredMethod, given the name + argument descriptor
+	// (like "foo(I)"): if several methods match, the one with the most specific return type wins.
+	// Returns null instead of throwing NoSuchMethodException.
+	MemberInfo getDeclaredMethodBySignature(String signature) throws ClassNotFoundException {
+		// only <init> and <clinit> can start with <
+		if(signature.charAt(0) == '<')
+			return null;
+		return getMethodsBySignature().get(signature);
+	}
+	
+	MemberInfo getDeclaredConstructor(String argsDesc) throws ClassNotFoundException {
+		return getMethodsBySignature().get("<init>" + argsDesc);
+	}
+	
+	// Declared methods and constructors by name + argument descriptor, with the
+	// most specific return type winning, so every lookup is a single hash probe.
+	// Computed once per class, like getAllSupers.
+	private Map<String, MemberInfo> getMethodsBySignature() throws ClassNotFoundException {
+		Map<String, MemberInfo> rv = methodsBySignature;
+		if(rv != null)
+			return rv;
+		
+		rv = new HashMap<>();
+		for(MemberInfo m : methods) {
+			if(m.name.equals("<clinit>"))
+				continue;
+			String signature = m.name + m.getArgumentsDesc();
+			MemberInfo existing = rv.get(signature);
+			if(existing == null || hierarchy.isMoreSpecificReturnType(existing.getReturnDesc(), m.getReturnDesc()))
+				rv.put(signature, m);
+		}
+		
+		methodsBySignature = rv;
+		return rv;
+	}
+	
+	// Same as Class.isAssignableFrom
+	boolean isAssignableFrom(ClassInfo c) throws ClassNotFoundException {
+		if(c.name.equals(name))
+			return true;
+		if(name.equals("java.lang.Object"))
+			return true;
+		if(c.hierarchy == hierarchy)
+			return c.getAncestorIds().get(id);
+		// classes from different hierarchies (like the system one) are different objects,
+		// so compare by name
+		for(ClassInfo sc : c.getAllSupers())
+			if(sc.name.equals(name))
+				return true;
+		return false;
+	}
+	
+	@Override
+	public String toString() {
+		return (isInterface() ? "interface " : "class ") + name;
+	}
+}
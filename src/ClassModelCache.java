@@ -0,0 +1,44 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Parsed class file headers shared between hierarchies, keyed by the SHA-256 of the
+// class file, so a class that is in several hierarchies (such as the runtime library
+// and libraries used by both the client and the server) is only parsed once.
+// The models aren't part of any hierarchy; each hierarchy makes its own ClassInfo
+// from them, sharing the member lists.
+class ClassModelCache {
+	
+	// ByteBuffer compares by content
+	private final ConcurrentHashMap<ByteBuffer, ClassInfo> models = new ConcurrentHashMap<>();
+	
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+	
+	ClassInfo get(byte[] bytes) {
+		ByteBuffer key;
+		try {
+			key = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(bytes));
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		
+		ClassInfo model = models.get(key);
+		if(model != null) {
+			hits.incrementAndGet();
+			return model;
+		}
+		
+		misses.incrementAndGet();
+		model = ClassHierarchy.parseClass(null, bytes);
+		ClassInfo existing = models.putIfAbsent(key, model);
+		return existing != null ? existing : model;
+	}
+	
+	@Override
+	public String toString() {
+		return models.size()+" classes, "+hits+" hits, "+misses+" misses";
+	}
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+
+// Parsed classes for exception discovery, with the least recently used
+// ones evicted once the cache is full. Each entry also indexes the class's
+// methods by name and descriptor.
+// Exception discovery handles one class at a time, so the cache only needs
+// to hold about one class per worker thread.
+class ClassNodeCache {
+	
+	static class Entry {
+		final ClassNode node;
+		private final Map<String, MethodNode> methods = new HashMap<>();
+		
+		Entry(ClassNode node) {
+			this.node = node;
+			for(MethodNode mn : node.methods)
+				methods.put(mn.name + mn.desc, mn);
+		}
+		
+		// Returns null if the class has no such method
+		MethodNode getMethod(String name, String desc) {
+			return methods.get(name + desc);
+		}
+	}
+	
+	private final ClassHierarchy hierarchy;
+	private final int capacity;
+	private final LinkedHashMap<String, Entry> entries;
+	
+	private long hits, misses, evictions;
+	
+	ClassNodeCache(ClassHierarchy hierarchy, final int capacity) {
+		this.hierarchy = hierarchy;
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if(size() <= ClassNodeCache.this.capacity)
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+	
+	Entry get(String name) throws IOException {
+		synchronized(this) {
+			Entry e = entries.get(name);
+			if(e != null) {
+				hits++;
+				return e;
+			}
+			misses++;
+		}
+		
+		// parse outside the lock; if two threads miss on the same class at once, both parse it
+		byte[] bytes = hierarchy.getClassBytes(name);
+		if(bytes == null)
+			throw new IOException("Class not found: "+name);
+		ClassNode cn = new ClassNode();
+		new ClassReader(bytes).accept(cn, 0);
+		Entry e = new Entry(cn);
+		
+		synchronized(this) {
+			entries.put(name, e);
+		}
+		return e;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return hits+" hits, "+misses+" misses, "+evictions+" evictions (capacity "+capacity+")";
+	}
+}
@@ -4,36 +4,55 @@ import java.util.Map;
 
 public class FieldNameGenerator {
 	
-	private Map<String, Integer> indexByInfoString = new HashMap<String, Integer>();
+	private final NameCounter indexByInfoString = new NameCounter();
+	
+	// memoized parts of info strings, by field descriptor and by deobfuscated owner
+	private final Map<String, String> descInfos = new HashMap<String, String>();
+	private final Map<String, String> ownerInfos = new HashMap<String, String>();
+	
+	// reused for every name
+	private final StringBuilder info = new StringBuilder();
+	private final StringBuilder name = new StringBuilder();
 
-	private String makeDescInfo(String desc) {
-		if(desc.startsWith("[")) {
-			int levels = 0;
-			while(desc.startsWith("[")) {
-				levels++;
-				desc = desc.substring(1);
-			}
-			return levels + makeDescInfo(desc);
-		}
-		if(desc.startsWith("Ljava/")) {
-			int i = desc.lastIndexOf('/');
-			return desc.substring(i+1, desc.length()-1);
-		}
-		return desc.substring(0, 1);
+	private String getDescInfo(String desc) {
+		String rv = descInfos.get(desc);
+		if(rv != null)
+			return rv;
+		
+		StringBuilder sb = new StringBuilder();
+		int pos = 0;
+		while(desc.charAt(pos) == '[')
+			pos++;
+		if(pos > 0)
+			sb.append(pos);
+		if(desc.startsWith("Ljava/", pos))
+			sb.append(desc, desc.lastIndexOf('/') + 1, desc.length() - 1);
+		else
+			sb.append(desc.charAt(pos));
+		
+		rv = sb.toString();
+		descInfos.put(desc, rv);
+		return rv;
 	}
 	
-	public String generateName(String owner, String name, String desc, String deobfOwner) {
-		if(deobfOwner.contains("/"))
-			deobfOwner = deobfOwner.substring(deobfOwner.lastIndexOf('/') + 1);
+	private String getOwnerInfo(String deobfOwner) {
+		String rv = ownerInfos.get(deobfOwner);
+		if(rv != null)
+			return rv;
 		
-		String infoString = deobfOwner.replace("_", "") + "_" + makeDescInfo(desc);
+		rv = deobfOwner.substring(deobfOwner.lastIndexOf('/') + 1).replace("_", "") + "_";
+		ownerInfos.put(deobfOwner, rv);
+		return rv;
+	}
+	
+	public String generateName(String owner, String name, String desc, String deobfOwner) {
+		info.setLength(0);
+		info.append(getOwnerInfo(deobfOwner)).append(getDescInfo(desc));
 		
-		if(!indexByInfoString.containsKey(infoString))
-			indexByInfoString.put(infoString, 0);
+		int index = indexByInfoString.next(info);
 		
-		int index = indexByInfoString.get(infoString);
-		indexByInfoString.put(infoString, index+1);
-		return "field_" + index + "_" + infoString;
+		this.name.setLength(0);
+		return this.name.append("field_").append(index).append('_').append(info).toString();
 	}
 
 }
@@ -0,0 +1,306 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// Class headers (supertypes, and members with their throws clauses) of every
+// class in the runtime library and the library jars, saved in one file that is
+// mapped into memory and searched in place, so later runs don't need to read
+// those classes at all.
+// Reading the runtime image uses the jrt filesystem and ModuleLayer, so needs Java 9 or later.
+//
+// File layout (big-endian):
+//   int magic, int version, int numClasses
+//   numClasses * (int nameOffset, int dataOffset), sorted by the UTF-8 bytes of the name
+//   string pool and class data, which offsets point into
+// A string is a short length followed by that many bytes of UTF-8.
+// Class data is: int access, int superName (-1 for none), short numInterfaces,
+// the interfaces, then short numMethods and, for each method, int name, int desc,
+// int access, short numExceptions and the exceptions, then short numFields and,
+// for each field, int name, int desc, int access. Names are offsets of strings.
+class LibraryIndex implements Closeable {
+	
+	private static final int MAGIC = 0x53524758;
+	private static final int VERSION = 1;
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer data;
+	private final int numClasses;
+	
+	private LibraryIndex(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+				throw new IOException("Not a library index: "+file);
+			numClasses = data.getInt(8);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	// Opens the index, building it first if the file doesn't exist.
+	// The caller is responsible for naming the file after its inputs (see AnalysisCache.getLibraryKey).
+	static LibraryIndex open(File file, ClassLoader parent, List<File> libs) throws IOException {
+		if(!file.isFile()) {
+			// another run may be building the same index; whichever finishes last replaces the other's
+			File temp = AnalysisCache.createTemp(file);
+			try (OutputStream out = new FileOutputStream(temp)) {
+				write(out, readClasses(parent, libs));
+			} catch(IOException | RuntimeException e) {
+				temp.delete();
+				throw e;
+			}
+			AnalysisCache.commit(temp, file);
+		}
+		return new LibraryIndex(file);
+	}
+	
+	// The mapping itself stays until the buffer is garbage collected.
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	int size() {
+		return numClasses;
+	}
+	
+	// Returns the class, not part of any hierarchy (like ClassModelCache's), or null if it isn't in the index.
+	ClassInfo find(String name) {
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		
+		int lo = 0, hi = numClasses - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compareString(data.getInt(12 + mid * 8), key);
+			if(c < 0)
+				lo = mid + 1;
+			else if(c > 0)
+				hi = mid - 1;
+			else
+				return readClass(name, data.getInt(12 + mid * 8 + 4));
+		}
+		return null;
+	}
+	
+	private int compareString(int offset, byte[] key) {
+		int length = data.getShort(offset) & 0xFFFF;
+		for(int k = 0; k < length && k < key.length; k++) {
+			int c = (data.get(offset + 2 + k) & 0xFF) - (key[k] & 0xFF);
+			if(c != 0)
+				return c;
+		}
+		return length - key.length;
+	}
+	
+	private String readString(int offset) {
+		if(offset < 0)
+			return null;
+		byte[] bytes = new byte[data.getShort(offset) & 0xFFFF];
+		ByteBuffer buf = data.duplicate();
+		buf.position(offset + 2);
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private ClassInfo readClass(String name, int pos) {
+		int access = data.getInt(pos);
+		String superName = readString(data.getInt(pos + 4));
+		pos += 8;
+		
+		String[] interfaces = new String[data.getShort(pos) & 0xFFFF];
+		pos += 2;
+		for(int k = 0; k < interfaces.length; k++, pos += 4)
+			interfaces[k] = readString(data.getInt(pos));
+		
+		int numMethods = data.getShort(pos) & 0xFFFF;
+		pos += 2;
+		List<MemberInfo> methods = new ArrayList<>(numMethods);
+		for(int k = 0; k < numMethods; k++) {
+			String mname = readString(data.getInt(pos));
+			String mdesc = readString(data.getInt(pos + 4));
+			int maccess = data.getInt(pos + 8);
+			String[] exceptions = new String[data.getShort(pos + 12) & 0xFFFF];
+			pos += 14;
+			for(int e = 0; e < exceptions.length; e++, pos += 4)
+				exceptions[e] = readString(data.getInt(pos));
+			methods.add(new MemberInfo(mname, mdesc, maccess, exceptions));
+		}
+		
+		int numFields = data.getShort(pos) & 0xFFFF;
+		pos += 2;
+		List<MemberInfo> fields = new ArrayList<>(numFields);
+		for(int k = 0; k < numFields; k++, pos += 12)
+			fields.add(new MemberInfo(readString(data.getInt(pos)), readString(data.getInt(pos + 4)), data.getInt(pos + 8), null));
+		
+		return new ClassInfo(null, name, access, superName, interfaces, methods, fields);
+	}
+	
+	
+	
+	// Reads every class the parent loader can load from the runtime image, then every
+	// class in the libraries, so the first class with each name is the one that
+	// ClassHierarchy would have found.
+	private static Map<String, ClassInfo> readClasses(ClassLoader parent, List<File> libs) throws IOException {
+		final Map<String, ClassInfo> classes = new HashMap<>();
+		
+		// class files in the runtime image are in /modules/<module>/<path>
+		FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+		for(Module module : ModuleLayer.boot().modules()) {
+			// the parent loader delegates to the boot loader, but not to the application loader
+			ClassLoader loader = module.getClassLoader();
+			if(loader != null && loader != parent)
+				continue;
+			
+			Files.walkFileTree(jrt.getPath("/modules", module.getName()), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					String fileName = file.getFileName().toString();
+					if(fileName.endsWith(".class") && !fileName.equals("module-info.class")) {
+						ClassInfo ci = ClassHierarchy.parseClass(null, Files.readAllBytes(file));
+						if(!classes.containsKey(ci.name))
+							classes.put(ci.name, ci);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		
+		for(File f : libs) {
+			try (MappedJar jar = new MappedJar(f)) {
+				for(String entry : jar.getEntryNames()) {
+					if(!entry.endsWith(".class") || entry.endsWith("module-info.class"))
+						continue;
+					String name = entry.substring(0, entry.length() - 6).replace('/', '.');
+					if(!classes.containsKey(name))
+						classes.put(name, ClassHierarchy.parseClass(null, jar.read(entry)));
+				}
+			}
+		}
+		
+		return classes;
+	}
+	
+	// Strings are written once, and referred to by their offset in the file.
+	private static class StringPool {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final Map<String, Integer> offsets = new HashMap<>();
+		final int base;
+		
+		StringPool(int base) {
+			this.base = base;
+		}
+		
+		int get(String s) throws IOException {
+			if(s == null)
+				return -1;
+			Integer offset = offsets.get(s);
+			if(offset != null)
+				return offset;
+			
+			byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+			if(utf8.length > 0xFFFF)
+				throw new IOException("String too long for library index: "+s);
+			offset = base + out.size();
+			out.writeShort(utf8.length);
+			out.write(utf8);
+			offsets.put(s, offset);
+			return offset;
+		}
+	}
+	
+	private static void write(OutputStream file, Map<String, ClassInfo> classes) throws IOException {
+		List<byte[]> names = new ArrayList<>(classes.size());
+		for(String name : classes.keySet())
+			names.add(name.getBytes(StandardCharsets.UTF_8));
+		// the same order as compareString
+		Collections.sort(names, new Comparator<byte[]>() {
+			@Override
+			public int compare(byte[] a, byte[] b) {
+				for(int k = 0; k < a.length && k < b.length; k++) {
+					int c = (a[k] & 0xFF) - (b[k] & 0xFF);
+					if(c != 0)
+						return c;
+				}
+				return a.length - b.length;
+			}
+		});
+		
+		// all the strings come first, so that the class data can refer to them
+		StringPool pool = new StringPool(12 + names.size() * 8);
+		for(ClassInfo ci : classes.values())
+			writeClass(new DataOutputStream(new ByteArrayOutputStream()), ci, pool);
+		
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream classData = new DataOutputStream(classBytes);
+		int dataBase = pool.base + pool.out.size();
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 65536));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(names.size());
+		for(byte[] name : names) {
+			ClassInfo ci = classes.get(new String(name, StandardCharsets.UTF_8));
+			out.writeInt(pool.get(ci.name));
+			out.writeInt(dataBase + classData.size());
+			writeClass(classData, ci, pool);
+		}
+		pool.bytes.writeTo(out);
+		classBytes.writeTo(out);
+		out.flush();
+	}
+	
+	private static void writeClass(DataOutputStream out, ClassInfo ci, StringPool pool) throws IOException {
+		pool.get(ci.name);
+		out.writeInt(ci.access);
+		out.writeInt(pool.get(ci.superName));
+		
+		out.writeShort(ci.interfaces.length);
+		for(String iface : ci.interfaces)
+			out.writeInt(pool.get(iface));
+		
+		out.writeShort(ci.methods.size());
+		for(MemberInfo m : ci.methods) {
+			out.writeInt(pool.get(m.name));
+			out.writeInt(pool.get(m.desc));
+			out.writeInt(m.access);
+			out.writeShort(m.exceptions.length);
+			for(String e : m.exceptions)
+				out.writeInt(pool.get(e));
+		}
+		
+		out.writeShort(ci.fields.size());
+		for(MemberInfo f : ci.fields) {
+			out.writeInt(pool.get(f.name));
+			out.writeInt(pool.get(f.desc));
+			out.writeInt(f.access);
+		}
+	}
+}
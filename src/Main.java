@@ -1,27 +1,26 @@
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.PrintWriter;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
@@ -29,11 +28,17 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.AnalyzerAdapter;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FrameNode;
 import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.LocalVariableNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
 
 
 public class Main {
@@ -61,33 +66,120 @@ public class Main {
 		return rv;
 	}
 	
-	static class ExceptionEntry {
-		MethodDetails method;
-		List<TryBlock> tryBlocks = new ArrayList<>();
-	}
-	
 	static class TryBlock {
-		Class<?> catches;
+		// index in methodGraph.tryBlocks
+		int id;
+		ClassInfo catches;
 		boolean isReachable;
 		MethodDetails method;
-		TryCatchBlockNode node;
+	}
+	
+	// Tracks which try blocks cover the current instruction while a method's
+	// instructions are visited in order. A try block covers an instruction if its
+	// start label has been seen and its end label hasn't. The covering list only
+	// changes at those labels, so it is only rebuilt there, and every throw and
+	// call site in between shares the same immutable list.
+	static class TryCoverage {
+		private final List<TryBlock> handlers = new ArrayList<>(); // one per try-catch node, in table order
+		private final Map<LabelNode, List<Integer>> starts = new HashMap<>();
+		private final Map<LabelNode, List<Integer>> ends = new HashMap<>();
+		private final boolean[] started, ended;
+		
+		private List<TryBlock> current = Collections.emptyList();
+		private boolean changed;
+		
+		TryCoverage(List<TryCatchBlockNode> tryCatchBlocks, Map<LabelNode, TryBlock> tryCatchData) {
+			for(TryCatchBlockNode tcb : tryCatchBlocks) {
+				if(tcb.type == null)
+					continue; // ignore finally blocks
+				
+				int index = handlers.size();
+				handlers.add(tryCatchData.get(tcb.handler));
+				addLabel(starts, tcb.start, index);
+				addLabel(ends, tcb.end, index);
+			}
+			
+			started = new boolean[handlers.size()];
+			ended = new boolean[handlers.size()];
+		}
+		
+		private static void addLabel(Map<LabelNode, List<Integer>> map, LabelNode label, int index) {
+			List<Integer> list = map.get(label);
+			if(list == null)
+				map.put(label, list = new ArrayList<>(1));
+			list.add(index);
+		}
+		
+		void visitLabel(LabelNode label) {
+			List<Integer> list = starts.get(label);
+			if(list != null) {
+				for(int index : list)
+					started[index] = true;
+				changed = true;
+			}
+			
+			list = ends.get(label);
+			if(list != null) {
+				for(int index : list)
+					ended[index] = true;
+				changed = true;
+			}
+		}
+		
+		// Returns the try blocks covering the current instruction, innermost first
+		// (the order of the exception table), without duplicates.
+		List<TryBlock> getHandlers() {
+			if(changed) {
+				List<TryBlock> rv = new ArrayList<>();
+				for(int k = 0; k < started.length; k++)
+					if(started[k] && !ended[k] && !rv.contains(handlers.get(k)))
+						rv.add(handlers.get(k));
+				current = rv.isEmpty() ? Collections.<TryBlock>emptyList() : Collections.unmodifiableList(rv);
+				changed = false;
+			}
+			return current;
+		}
 	}
 	
 	static class MethodDetails implements Comparable<MethodDetails> {
-		MethodGroup group = new MethodGroup();
+		private static final int[] NO_EXCEPTIONS = new int[0];
+		
+		// null until the end of the discovery phase (see buildGroups)
+		MethodGroup group;
+		
+		// disjoint-set forest used to merge groups during the discovery phase
+		MethodDetails groupParent = this;
+		int groupRank;
 		
-		Set<MethodDetails> allDerived = new HashSet<>();
+		// false for methods that are only known from being overridden (see MethodMap.retainDiscovered)
+		boolean discovered;
+		
+		// index in methodGraph, which holds the derived methods and exception edges; -1 until it's built
+		int index = -1;
 		
 		// used during exception discovery and propagation phase
-		List<ExceptionEntry> exceptionsFrom = new ArrayList<>();
-		List<ExceptionEntry> exceptionsTo = new ArrayList<>();
-		Set<String> exceptions = new HashSet<>();
+		// ids from exceptionTypes
+		BitSet exceptions = new BitSet();
+		// the same ids, in the order they were added; writeEXC puts the names in a HashSet
+		// in this order, so names in the same bucket come out as when the exceptions were kept in one
+		int[] exceptionOrder = NO_EXCEPTIONS;
 
 		final MethodIdentifier ident;
 		public MethodDetails(MethodIdentifier ident) {
 			this.ident = ident;
 		}
 		
+		// Returns false if the method already has this exception.
+		boolean addException(int id) {
+			if(exceptions.get(id))
+				return false;
+			exceptions.set(id);
+			int n = exceptionOrder.length;
+			exceptionOrder = Arrays.copyOf(exceptionOrder, n + 1);
+			exceptionOrder[n] = id;
+			return true;
+		}
+		
 		@Override
 		public String toString() {
 			return ident.toString();
@@ -99,109 +191,448 @@ public class Main {
 		}
 	}
 	
+	// Exception types that appear in methods' exception sets, numbered densely
+	// so that the sets can be stored as bitsets.
+	// Types are never interned by parallel tasks: discovery's are interned in the order its
+	// buffers are merged, so the ids don't depend on the number of threads.
+	static class ExceptionTypeTable {
+		private final Map<String, Integer> ids = new HashMap<>();
+		private final List<ClassInfo> types = new ArrayList<>();
+		
+		synchronized int intern(ClassInfo type) {
+			Integer id = ids.get(type.getName());
+			if(id == null) {
+				ids.put(type.getName(), id = types.size());
+				types.add(type);
+			}
+			return id;
+		}
+		
+		synchronized ClassInfo get(int id) {
+			return types.get(id);
+		}
+		
+		synchronized int size() {
+			return types.size();
+		}
+	}
+	
+	static ExceptionTypeTable exceptionTypes = new ExceptionTypeTable();
+	
+	// strings used in MethodIdentifiers and FieldIdentifiers
+	static final SymbolTable symbols = new SymbolTable();
+	
 	static class MethodGroup implements Comparable<MethodGroup> {
 		// fields not used during discovery phase
-		Set<MethodDetails> methods = new TreeSet<>();
+		// sorted (see buildGroups)
+		List<MethodDetails> methods = new ArrayList<>(1);
 		String srgName;
 		
 		@Override
 		public int compareTo(MethodGroup o) {
-			return methods.iterator().next().compareTo(o.methods.iterator().next());
+			return methods.get(0).compareTo(o.methods.get(0));
 		}
 	}
 	
 	static class FieldIdentifier implements Comparable<FieldIdentifier> {
-		public final String owner;
-		public final String name;
-		public final String desc;
+		// ids from symbols
+		final int ownerId;
+		final int nameId;
+		final int descId;
 		
 		public FieldIdentifier(String owner, String name, String desc) {
-			this.owner = owner;
-			this.name = name;
-			this.desc = desc;
+			this.ownerId = symbols.intern(owner);
+			this.nameId = symbols.intern(name);
+			this.descId = symbols.intern(desc);
+		}
+		
+		public String getOwner() {
+			return symbols.get(ownerId);
+		}
+		
+		public String getName() {
+			return symbols.get(nameId);
+		}
+		
+		public String getDesc() {
+			return symbols.get(descId);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(obj instanceof FieldIdentifier) {
+				FieldIdentifier f = (FieldIdentifier)obj;
+				return f.descId == descId && f.nameId == nameId && f.ownerId == ownerId;
+			}
+			return false;
+		}
+		
+		@Override
+		public int hashCode() {
+			return MethodMap.hash(ownerId, nameId, descId);
 		}
 		
 		@Override
 		public int compareTo(FieldIdentifier arg0) {
-			int i = owner.compareTo(arg0.owner);
+			int i = (ownerId == arg0.ownerId ? 0 : getOwner().compareTo(arg0.getOwner()));
 			if(i != 0) return i;
-			i = name.compareTo(arg0.name);
+			i = (nameId == arg0.nameId ? 0 : getName().compareTo(arg0.getName()));
 			if(i != 0) return i;
-			return desc.compareTo(arg0.desc);
+			return descId == arg0.descId ? 0 : getDesc().compareTo(arg0.getDesc());
 		}
 	}
 	
-	static Set<FieldIdentifier> discoveredFields = new TreeSet<>();
+	// unordered; sorted when the SRG is written
+	static Set<FieldIdentifier> discoveredFields = new HashSet<>();
+	
+	static MethodMap allMethods = new MethodMap();
 	
-	static Map<MethodIdentifier, MethodDetails> allMethods = new TreeMap<>();
-	static Set<MethodIdentifier> discoveredMethods = new TreeSet<>();
+	// overridePairs[k+1] overrides overridePairs[k], for even k; used to build methodGraph
+	static List<MethodDetails> overridePairs = new ArrayList<>();
 	
-	static void setGroup(MethodDetails m, MethodGroup g) {
-		MethodGroup old = m.group;
-		m.group = g;
+	// built at the end of the discovery phase
+	static MethodGraph methodGraph;
+	
+	static MethodDetails findGroupRoot(MethodDetails m) {
+		MethodDetails root = m;
+		while(root.groupParent != root)
+			root = root.groupParent;
 		
-		if(old != null)
-			for(MethodDetails md : allMethods.values())
-				if(md.group == old)
-					md.group = g;
+		// path compression
+		while(m.groupParent != root) {
+			MethodDetails next = m.groupParent;
+			m.groupParent = root;
+			m = next;
+		}
+		return root;
 	}
 	
 	static void mergeGroup(MethodDetails m1, MethodDetails m2) {
-		if(m1.group == null)
-			m1.group = m2.group;
-		else if(m2.group == null)
-			m2.group = m1.group;
-		else
-			setGroup(m1, m2.group);
-	}
-	
-	//private static Map<Class<?>, List<Class<?>>> superCache = new HashMap<>();
-	static List<Class<?>> getAllSupers(Class c) {
-		//if(superCache.containsKey(c))
-		//	return superCache.get(c);
-		List<Class<?>> rv = new ArrayList<>();
-		if(c.getSuperclass() != null) {
-			rv.add(c.getSuperclass());
-			rv.addAll(getAllSupers(c.getSuperclass()));
-		}
-		for(Class i : c.getInterfaces()) {
-			rv.add(i);
-			rv.addAll(getAllSupers(i));
-		}
-		//superCache.put(c, rv);
-		return rv;
+		MethodDetails r1 = findGroupRoot(m1);
+		MethodDetails r2 = findGroupRoot(m2);
+		if(r1 == r2)
+			return;
+		
+		// union by rank
+		if(r1.groupRank < r2.groupRank)
+			r1.groupParent = r2;
+		else if(r1.groupRank > r2.groupRank)
+			r2.groupParent = r1;
+		else {
+			r2.groupParent = r1;
+			r1.groupRank++;
+		}
+	}
+	
+	// Creates one MethodGroup per disjoint set and assigns it to every member.
+	// Methods that were merged through since-removed methods (e.g. library
+	// methods that were never discovered) still end up in the same group.
+	// The methods must be sorted, and each group's methods will be too.
+	static Set<MethodGroup> buildGroups(List<MethodDetails> methods) {
+		Map<MethodDetails, MethodGroup> byRoot = new HashMap<>();
+		for(MethodDetails md : methods) {
+			MethodDetails root = findGroupRoot(md);
+			MethodGroup g = byRoot.get(root);
+			if(g == null)
+				byRoot.put(root, g = new MethodGroup());
+			md.group = g;
+			g.methods.add(md);
+		}
+		return new TreeSet<>(byRoot.values());
+	}
+	
+	// Equivalent of Class.getMethods() for an interface
+	static Collection<MemberInfo> getInterfaceMethods(ClassInfo i) throws ClassNotFoundException {
+		Map<String, MemberInfo> rv = new LinkedHashMap<>();
+		addInterfaceMethods(i, rv, true);
+		return rv.values();
+	}
+	
+	private static void addInterfaceMethods(ClassInfo i, Map<String, MemberInfo> rv, boolean includeStatic) throws ClassNotFoundException {
+		for(MemberInfo m : i.methods)
+			if(m.isPublic() && (includeStatic || !m.isStatic()) && !m.name.equals("<clinit>") && !rv.containsKey(m.name + m.desc))
+				rv.put(m.name + m.desc, m);
+		// static methods are not inherited from superinterfaces
+		for(ClassInfo si : i.getInterfaces())
+			addInterfaceMethods(si, rv, false);
 	}
 	
 	static MethodDetails getMethod(MethodIdentifier ident) {
 		MethodDetails md = allMethods.get(ident);
 		if(md == null)
-			allMethods.put(ident, md = new MethodDetails(ident));
+			allMethods.put(md = new MethodDetails(ident));
 		return md;
 	}
 	
-	static void discoverMethod(Class c, Method m) {
-		MethodIdentifier ident = new MethodIdentifier(c.getName(), m.getName(), Type.getMethodDescriptor(m));
-		MethodDetails fm = getMethod(ident);
+	// Results of the discovery phase for a shard of classes.
+	// Shards can be discovered in parallel since they only read the class hierarchy;
+	// the buffers are then merged into the global tables in order.
+	static class DiscoveryBuffer {
+		List<MethodIdentifier> methods = new ArrayList<>();
+		// overrides[k+1] overrides overrides[k], for even k
+		List<MethodIdentifier> overrides = new ArrayList<>();
+		// (interface, supertype) pairs for bindInheritedImplementations
+		List<ClassInfo> bindings = new ArrayList<>();
+		List<FieldIdentifier> fields = new ArrayList<>();
+		Map<FieldIdentifier, String> enumFields = new HashMap<>();
+	}
+	
+	static void discoverMethod(ClassInfo c, MemberInfo m, DiscoveryBuffer out) throws ClassNotFoundException {
+		if(m.name.equals("<clinit>"))
+			return;
+		
+		MethodIdentifier ident = new MethodIdentifier(c.getName(), m.name, m.desc);
+		out.methods.add(ident);
+		
+		if(m.name.equals("<init>"))
+			return;
+		
+		String signature = m.name + m.getArgumentsDesc();
+		for(ClassInfo sc : c.getAllSupers()) {
+			MemberInfo fromSuper = sc.getDeclaredMethodBySignature(signature);
+			if(fromSuper == null)
+				continue;
+			
+			out.overrides.add(new MethodIdentifier(sc.getName(), m.name, fromSuper.desc));
+			out.overrides.add(ident);
+		}
+	}
+	
+	static DiscoveryBuffer discoverClasses(List<String> classNames) throws ClassNotFoundException, IOException {
+		DiscoveryBuffer out = new DiscoveryBuffer();
+		
+		for(String name : classNames) {
+			ClassInfo ci = hierarchy.get(name);
+			
+			for(MemberInfo m : ci.methods)
+				discoverMethod(ci, m, out);
+			for(MemberInfo f : ci.fields)
+				out.fields.add(new FieldIdentifier(ci.getName(), f.name, f.desc));
+			
+			if(ci.isEnum())
+				findEnumFields(ci, classNodes.get(name).node, out.enumFields);
+			
+			for(ClassInfo i : ci.getInterfaces())
+				for(ClassInfo s : ci.getAllSupers()) {
+					out.bindings.add(i);
+					out.bindings.add(s);
+				}
+		}
+		
+		return out;
+	}
+	
+	static void mergeDiscoveryBuffer(DiscoveryBuffer buf) {
+		for(MethodIdentifier ident : buf.methods)
+			getMethod(ident).discovered = true;
+		
+		for(int k = 0; k < buf.overrides.size(); k += 2) {
+			MethodDetails fromSuperFM = getMethod(buf.overrides.get(k));
+			MethodDetails fm = getMethod(buf.overrides.get(k + 1));
+			
+			mergeGroup(fromSuperFM, fm);
+			
+			overridePairs.add(fromSuperFM);
+			overridePairs.add(fm);
+		}
+		
+		discoveredFields.addAll(buf.fields);
+	}
+	
+	// Merges interface methods with the methods that implement them in a supertype
+	// of a class that implements the interface, which fixes the case where:
+	//   interface I {public void X();}
+	//   class C1 {public void X() {}}
+	//   class C2 extends C1 implements I {}
+	// but I.x and C1.x aren't merged.
+	// Many classes have the same (interface, supertype) pairs, so each pair is only
+	// bound once, looking the interface's methods up in the supertype's signature index.
+	static void bindInheritedImplementations(List<DiscoveryBuffer> bufs) throws Exception {
+		// each pair once, in the order they were found
+		Set<Long> seen = new HashSet<>();
+		List<ClassInfo> pairs = new ArrayList<>();
+		for(DiscoveryBuffer buf : bufs)
+			for(int k = 0; k < buf.bindings.size(); k += 2) {
+				ClassInfo i = buf.bindings.get(k), s = buf.bindings.get(k + 1);
+				if(seen.add(((long)i.id << 32) | s.id)) {
+					pairs.add(i);
+					pairs.add(s);
+				}
+			}
+		
+		// interface methods by interface, computed once each
+		final ConcurrentHashMap<ClassInfo, List<MemberInfo>> interfaceMethods = new ConcurrentHashMap<>();
+		
+		int nShards = (pool == null ? 1 : pool.getParallelism() * 4);
+		int nPairs = pairs.size() / 2;
+		List<Callable<List<MethodIdentifier>>> tasks = new ArrayList<>(nShards);
+		for(int k = 0; k < nShards; k++) {
+			final List<ClassInfo> shard = pairs.subList(k * nPairs / nShards * 2, (k + 1) * nPairs / nShards * 2);
+			tasks.add(new Callable<List<MethodIdentifier>>() {
+				@Override
+				public List<MethodIdentifier> call() throws Exception {
+					// merges[k] and merges[k+1] are in the same group, for even k
+					List<MethodIdentifier> merges = new ArrayList<>();
+					for(int k = 0; k < shard.size(); k += 2) {
+						ClassInfo i = shard.get(k), s = shard.get(k + 1);
+						
+						List<MemberInfo> methods = interfaceMethods.get(i);
+						if(methods == null) {
+							methods = new ArrayList<>(getInterfaceMethods(i));
+							interfaceMethods.put(i, methods);
+						}
+						
+						for(MemberInfo m : methods) {
+							MemberInfo sm = s.getDeclaredMethodBySignature(m.name + m.getArgumentsDesc());
+							if(sm == null)
+								continue;
+							merges.add(new MethodIdentifier(i.getName(), m.name, m.desc));
+							merges.add(new MethodIdentifier(s.getName(), sm.name, sm.desc));
+						}
+					}
+					return merges;
+				}
+			});
+		}
+		
+		for(List<MethodIdentifier> merges : runTasks(tasks))
+			for(int k = 0; k < merges.size(); k += 2)
+				mergeGroup(getMethod(merges.get(k)), getMethod(merges.get(k + 1)));
+	}
+	
+	// Splits classNames into shards and discovers them on the worker pool.
+	// The buffers are returned in the same order as classNames.
+	static List<DiscoveryBuffer> discoverAllClasses(List<String> classNames) throws Exception {
+		int nShards = (pool == null ? 1 : pool.getParallelism() * 4);
+		
+		List<Callable<DiscoveryBuffer>> tasks = new ArrayList<>(nShards);
+		for(int k = 0; k < nShards; k++) {
+			final List<String> shard = classNames.subList(k * classNames.size() / nShards, (k + 1) * classNames.size() / nShards);
+			tasks.add(new Callable<DiscoveryBuffer>() {
+				@Override
+				public DiscoveryBuffer call() throws Exception {
+					return discoverClasses(shard);
+				}
+			});
+		}
+		
+		return runTasks(tasks);
+	}
+	
+	// Runs the tasks on the worker pool (or on this thread, if there is no pool)
+	// and returns their results in order.
+	static <T> List<T> runTasks(List<Callable<T>> tasks) throws Exception {
+		List<T> rv = new ArrayList<>(tasks.size());
+		
+		if(pool == null) {
+			for(Callable<T> task : tasks)
+				rv.add(task.call());
+			return rv;
+		}
 		
-		discoveredMethods.add(ident);
+		List<Callable<T>> measuredTasks = new ArrayList<>(tasks.size());
+		for(Callable<T> task : tasks)
+			measuredTasks.add(PhaseMetrics.measureAllocation(task));
 		
-		for(Class sc : getAllSupers(c)) {
+		for(Future<T> f : pool.invokeAll(measuredTasks)) {
 			try {
-				Method fromSuper = sc.getDeclaredMethod(m.getName(), m.getParameterTypes());
-				MethodDetails fromSuperFM = getMethod(new MethodIdentifier(sc.getName(), m.getName(), Type.getMethodDescriptor(fromSuper)));
+				rv.add(f.get());
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof Exception)
+					throw (Exception)e.getCause();
+				if(e.getCause() instanceof Error)
+					throw (Error)e.getCause();
+				throw e;
+			}
+		}
+		return rv;
+	}
 	
-				mergeGroup(fromSuperFM, fm);
-				
-				fromSuperFM.allDerived.add(fm);
-			} catch(NoSuchMethodException e) {
+	// Finds the name of the constant in each public static final field of an enum class,
+	// which is either an enum constant or a copy of one, from the static initializer:
+	//   NEW C (or a subclass, for constants with bodies); DUP; LDC "NAME"; ...; INVOKESPECIAL <init>; PUTSTATIC field
+	//   GETSTATIC field; PUTSTATIC otherField
+	// Reading the bytecode means the class is never initialized, so this is safe to run in parallel.
+	static void findEnumFields(ClassInfo c, ClassNode cn, Map<FieldIdentifier, String> enumFields) throws ClassNotFoundException {
+		MethodNode clinit = null;
+		for(MethodNode mn : cn.methods)
+			if(mn.name.equals("<clinit>"))
+				clinit = mn;
+		if(clinit == null)
+			return;
+		
+		// the constant names of objects being constructed (null if not a constant), innermost last
+		List<String> constructing = new ArrayList<>();
+		// field name + desc -> name of the constant it holds
+		Map<String, String> fieldValues = new HashMap<>();
+		
+		// the last two instructions, and the constant left on the stack by the last one
+		AbstractInsnNode prev = null, prev2 = null;
+		String value = null;
+		
+		for(AbstractInsnNode insn = clinit.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+			if(insn.getOpcode() < 0)
+				continue; // labels, line numbers and frames
+			
+			String newValue = null;
+			switch(insn.getOpcode()) {
+			case Opcodes.NEW:
+				constructing.add(isEnumConstantClass(c, ((TypeInsnNode)insn).desc) ? "" : null);
+				break;
+			
+			case Opcodes.LDC:
+				// the name is the first constructor argument
+				Object cst = ((LdcInsnNode)insn).cst;
+				if(cst instanceof String && prev2 != null && prev2.getOpcode() == Opcodes.NEW && prev.getOpcode() == Opcodes.DUP
+						&& "".equals(constructing.get(constructing.size() - 1)))
+					constructing.set(constructing.size() - 1, (String)cst);
+				break;
+			
+			case Opcodes.INVOKESPECIAL:
+				if(((MethodInsnNode)insn).name.equals("<init>") && !constructing.isEmpty()) {
+					newValue = constructing.remove(constructing.size() - 1);
+					if("".equals(newValue))
+						newValue = null;
+				}
+				break;
+			
+			case Opcodes.GETSTATIC:
+			case Opcodes.PUTSTATIC:
+				FieldInsnNode fin = (FieldInsnNode)insn;
+				if(!fin.owner.equals(cn.name))
+					break;
+				if(insn.getOpcode() == Opcodes.GETSTATIC)
+					newValue = fieldValues.get(fin.name + fin.desc);
+				else if(value != null)
+					fieldValues.put(fin.name + fin.desc, value);
+				else
+					fieldValues.remove(fin.name + fin.desc);
+				break;
 			}
+			
+			prev2 = prev;
+			prev = insn;
+			value = newValue;
+		}
+		
+		final int needMods = Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL;
+		for(MemberInfo f : c.fields) {
+			if((f.access & needMods) != needMods || !f.desc.startsWith("L"))
+				continue;
+			
+			String name = fieldValues.get(f.name + f.desc);
+			if(name != null && isEnumConstantClass(c, f.desc.substring(1, f.desc.length() - 1)))
+				enumFields.put(new FieldIdentifier(c.getName(), f.name, f.desc), name);
 		}
 	}
 	
-	static void discoverMethod(Class c, Constructor m) {
-		MethodIdentifier ident = new MethodIdentifier(c.getName(), "<init>", Type.getConstructorDescriptor(m));
-		getMethod(ident);
-		discoveredMethods.add(ident);
+	// Whether the class (an internal name) is the enum class, or the class of a constant with a body
+	private static boolean isEnumConstantClass(ClassInfo c, String internalName) throws ClassNotFoundException {
+		String name = internalName.replace('/', '.');
+		if(name.equals(c.getName()))
+			return true;
+		ClassInfo ci = hierarchy.find(name);
+		return ci != null && c.getName().equals(ci.superName);
 	}
 	
 	private static Map<String, String> knownClassDeobfNames = new HashMap<String, String>();
@@ -210,7 +641,13 @@ public class Main {
 		System.out.println((ns / 1000000)+"ms");
 	}
 	
-	private static ClassLoader loader;
+	// used to read classes from the libraries and minecraft.jar
+	private static ClassHierarchy hierarchy;
+	// used to check whether a class is part of the runtime library
+	private static ClassHierarchy systemHierarchy;
+	
+	// worker threads for parallel phases; null when running single-threaded
+	private static ForkJoinPool pool;
 	
 	public static void main(String[] args) throws Exception {
 		File libdir = new File(args[0]);
@@ -219,11 +656,99 @@ public class Main {
 		String version = args[3];
 		String side = args[4];
 		
+		// more sides to generate in the same run, and their jars
+		List<String> otherSides = new ArrayList<>();
+		List<File> otherJars = new ArrayList<>();
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		int classCacheSize = 256;
+		File cacheDir = null;
+		File metricsFile = null;
+		for(int k = 5; k < args.length; k++) {
+			if(args[k].equals("--threads") && k + 1 < args.length)
+				threads = Integer.parseInt(args[++k]);
+			else if(args[k].equals("--class-cache") && k + 1 < args.length)
+				classCacheSize = Integer.parseInt(args[++k]);
+			else if(args[k].equals("--cache") && k + 1 < args.length)
+				cacheDir = new File(args[++k]);
+			else if(args[k].equals("--metrics") && k + 1 < args.length)
+				metricsFile = new File(args[++k]);
+			else if(args[k].equals("--side") && k + 2 < args.length) {
+				otherSides.add(args[++k]);
+				otherJars.add(new File(args[++k]));
+			} else
+				throw new IllegalArgumentException("Unknown option: "+args[k]);
+		}
+		if(threads < 1)
+			throw new IllegalArgumentException("--threads must be at least 1");
+		
 		System.out.println("Libraries: " + libdir);
 		System.out.println("MC: " + mcfile);
 		System.out.println("Conf: " + confdir);
 		System.out.println("Version: " + version);
 		System.out.println("Side: "+side);
+		System.out.println("Threads: "+threads);
+		
+		// with several sides, class files that are in more than one hierarchy are only parsed once;
+		// with one, hashing every class file would cost more than it saves
+		ClassModelCache models = (otherSides.isEmpty() ? null : new ClassModelCache());
+		
+		try (ClassHierarchy systemHierarchy = new ClassHierarchy(ClassLoader.getSystemClassLoader(), new ArrayList<File>(), models, null)) {
+			Main.systemHierarchy = systemHierarchy;
+			
+			if(threads > 1)
+				pool = new ForkJoinPool(threads);
+			
+			List<PhaseMetrics> metrics = new ArrayList<>();
+			metrics.add(generate(libdir, mcfile, confdir, version, side, models, cacheDir, classCacheSize));
+			
+			for(int k = 0; k < otherSides.size(); k++) {
+				System.out.println();
+				System.out.println("MC: " + otherJars.get(k));
+				System.out.println("Side: "+otherSides.get(k));
+				metrics.add(generate(libdir, otherJars.get(k), confdir, version, otherSides.get(k), models, cacheDir, classCacheSize));
+			}
+			
+			if(!otherSides.isEmpty())
+				System.out.println("Shared class models: "+models);
+			
+			if(metricsFile != null)
+				PhaseMetrics.writeJSON(metricsFile, metrics);
+		} finally {
+			if(pool != null)
+				pool.shutdown();
+		}
+	}
+	
+	private static void resetState() {
+		knownClassDeobfNames.clear();
+		deobfDescs.clear();
+		allMethods.clear();
+		overridePairs.clear();
+		methodGraph = null;
+		discoveredFields.clear();
+		exceptionTypes = new ExceptionTypeTable();
+	}
+	
+	// Builds the library index the first time these libraries are used with this runtime.
+	private static LibraryIndex openLibraryIndex(AnalysisCache cache, List<File> libs) throws IOException {
+		File file = cache.getLibraryIndexFile(AnalysisCache.getLibraryKey(libs));
+		if(file.isFile())
+			return LibraryIndex.open(file, null, null);
+		
+		long t0 = System.nanoTime();
+		System.out.print("Building library index...");
+		LibraryIndex index = LibraryIndex.open(file, ClassLoader.getSystemClassLoader().getParent(), libs);
+		reportTime(System.nanoTime() - t0);
+		System.out.println(index.size()+" library classes indexed");
+		return index;
+	}
+	
+	// Runs every phase for one side and writes its SRG and EXC files.
+	// The phases keep their results in static fields, so those are cleared first.
+	// Returns the side's metrics, which main writes out if --metrics was given.
+	private static PhaseMetrics generate(File libdir, File mcfile, File confdir, String version, String side, ClassModelCache models, File cacheDir, int classCacheSize) throws Exception {
+		resetState();
 		
 		try (Scanner s = new Scanner(Main.class.getResourceAsStream("/" + version + ".txt"))){ 
 			while(s.hasNextLine()) {
@@ -241,158 +766,138 @@ public class Main {
 		
 		libs.add(mcfile);
 		
-		List<URL> urls = new ArrayList<>(libs.size());
-		for(File f : libs)
-			urls.add(f.toURI().toURL());
-		urls.add(mcfile.toURI().toURL());
+		AnalysisCache cache = (cacheDir == null ? null : new AnalysisCache(cacheDir));
 		
-		try (URLClassLoader loader = new URLClassLoader((URL[])urls.toArray(new URL[0]), null)) {
-			Main.loader = loader;
+		// Classes are read straight from the class files, and never loaded.
+		// The library index leaves out the Minecraft jar, which is the one that changes.
+		try (LibraryIndex libraryIndex = (cache == null ? null : openLibraryIndex(cache, libs.subList(0, libs.size() - 1)));
+			ClassHierarchy hierarchy = new ClassHierarchy(ClassLoader.getSystemClassLoader().getParent(), libs, models, libraryIndex)) {
+			Main.hierarchy = hierarchy;
+			
+			classNodes = new ClassNodeCache(hierarchy, classCacheSize);
 			
-			long t0 = System.nanoTime();
+			PhaseMetrics metrics = new PhaseMetrics(side);
 			
+			PhaseMetrics.Phase phase = metrics.start("jar scan");
 			System.out.print("Gathering class names...");
 			
 			List<String> classNames = getClassNames(mcfile);
 			
-			long t1 = System.nanoTime();
-			reportTime(t1 - t0);
+			phase.count("classes", classNames.size());
+			reportTime(phase.end());
 			
-			System.out.print("Discovering methods in "+classNames.size()+" classes...");
+			phase = metrics.start("discovery");
 			
-			Map<FieldIdentifier, String> enumFields = new TreeMap<>();
+			String discoveryKey = null;
+			if(cache != null)
+				discoveryKey = AnalysisCache.getDiscoveryKey(libs);
 			
-			for(String name : classNames) {
-				Class<?> c = loader.loadClass(name);
+			Map<FieldIdentifier, String> enumFields = new HashMap<>();
+			
+			boolean discoveryCached = (cache != null && cache.loadDiscovery(discoveryKey, enumFields));
+			if(discoveryCached) {
+				System.out.print("Loaded discovery results for "+classNames.size()+" classes from cache...");
 				
-				for(Method m : c.getDeclaredMethods())
-					discoverMethod(c, m);
-				for(Constructor m : c.getDeclaredConstructors())
-					discoverMethod(c, m);
-				for(Field f : c.getDeclaredFields())
-					discoveredFields.add(new FieldIdentifier(c.getName(), f.getName(), Type.getDescriptor(f.getType())));
+			} else {
+				System.out.print("Discovering methods in "+classNames.size()+" classes...");
 				
-				if(c.isEnum()) {
-					Object[] constants = c.getEnumConstants();
-					if(constants != null) {
-						Set<Object> constantsSet = new HashSet<>(Arrays.asList(constants));
-						for(Field f : c.getDeclaredFields()) {
-							if(!c.isAssignableFrom(f.getType()))
-								continue;
-							
-							final int needMods = Modifier.STATIC | Modifier.PUBLIC | Modifier.FINAL; 
-							if((f.getModifiers() & needMods) != needMods)
-								continue;
-							
-							f.setAccessible(true);
-							
-							Object value = f.get(null);
-							if(!constantsSet.contains(value))
-								continue;
-							
-							FieldIdentifier fi = new FieldIdentifier(c.getName(), f.getName(), Type.getDescriptor(f.getType()));
-							
-							enumFields.put(fi, ((Enum)value).name());
-						}
-					}
+				List<DiscoveryBuffer> bufs = discoverAllClasses(classNames);
+				for(DiscoveryBuffer buf : bufs) {
+					mergeDiscoveryBuffer(buf);
+					enumFields.putAll(buf.enumFields);
 				}
+				bindInheritedImplementations(bufs);
 				
-				
-				// this fixes the case where:
-				//   interface I {public void X();}
-				//   class C1 {public void X() {}}
-				//   class C2 extends C1 implements I {}
-				// but I.x and C1.x aren't merged
-				for(Class i : c.getInterfaces())
-					for(Class s : getAllSupers(c))
-						for(Method m : i.getMethods()) {
-							try {
-								Method sm = s.getDeclaredMethod(m.getName(), m.getParameterTypes());
-								MethodIdentifier im = new MethodIdentifier(i.getName(), m.getName(), Type.getMethodDescriptor(m));
-								MethodIdentifier ism = new MethodIdentifier(s.getName(), sm.getName(), Type.getMethodDescriptor(sm));
-								mergeGroup(getMethod(im), getMethod(ism));
-							} catch(NoSuchMethodException e) {
-							}
-						}
+				allMethods.retainDiscovered();
 			}
 			
-			long t2 = System.nanoTime();
-			reportTime(t2 - t1);
+			List<MethodDetails> sortedMethods = allMethods.sortedValues();
+			methodGraph = new MethodGraph(sortedMethods, overridePairs);
+			overridePairs = new ArrayList<>();
 			
-			allMethods.keySet().retainAll(discoveredMethods);
+			if(cache != null && !discoveryCached)
+				cache.saveDiscovery(discoveryKey, enumFields);
 			
-			Set<MethodGroup> groups = new TreeSet<>();
-			for(MethodDetails md : allMethods.values())
-				md.group.methods.add(md);
-			for(MethodDetails md : allMethods.values())
-				groups.add(md.group);
+			phase.count("cached", discoveryCached ? 1 : 0);
+			phase.count("methods", allMethods.size());
+			phase.count("overrides", methodGraph.derived.length);
+			phase.count("fields", discoveredFields.size());
+			phase.count("enumFields", enumFields.size());
+			reportTime(phase.end());
+			
+			phase = metrics.start("grouping");
+			Set<MethodGroup> groups = buildGroups(sortedMethods);
+			phase.count("groups", groups.size());
+			phase.end();
 			
 			System.out.println(allMethods.size()+" methods discovered in "+groups.size()+" method groups");
 			
-			try (PrintWriter srg = new PrintWriter(new File(confdir, side+".srg"))) {
+			phase = metrics.start("naming");
+			
+			// Each group's generated name; g.srgName is set to its final name.
+			// In the SRG file, a group's methods before its first method with an
+			// unobfuscated name get the generated name, and each method after that
+			// gets the last unobfuscated name before it.
+			List<String> generatedNames = new ArrayList<>(groups.size());
+			MethodNameGenerator mng = new MethodNameGenerator(knownClassDeobfNames);
+			
+			int nObfMG = 0;
+			for(MethodGroup g : groups) {
 				
-				srg.println("PK: . net/minecraft/src");
-				srg.println("PK: net net");
-				srg.println("PK: net/minecraft net/minecraft");
-				srg.println("PK: net/minecraft/client net/minecraft/client");
-				srg.println("PK: net/minecraft/client/main net/minecraft/client/main");
-				srg.println("PK: net/minecraft/server net/minecraft/server");
+				g.srgName = mng.generateMethodName(g.methods.get(0).ident, g.methods.size());
 				
-				for(String s : classNames) {
-					s = s.replace('.', '/');
-					srg.println("CL: " + s + " " + deobfOwner(s));
-				}
+				boolean obf = true;
 				
-				MethodNameGenerator mng = new MethodNameGenerator();
+				if(knownClassDeobfNames.containsKey(g.srgName))
+					g.srgName = knownClassDeobfNames.get(g.srgName);
+				generatedNames.add(g.srgName);
 				
-				int nObfMG = 0;
-				for(MethodGroup g : groups) {
-					
-					Set<MethodIdentifier> smi = new TreeSet<MethodIdentifier>();
-					for(MethodDetails md : g.methods) smi.add(md.ident);
-					g.srgName = mng.generateMethodName(smi, knownClassDeobfNames, loader);
-					
-					boolean obf = true;
-					
-					if(knownClassDeobfNames.containsKey(g.srgName))
-						g.srgName = knownClassDeobfNames.get(g.srgName);
-					
-					for(MethodDetails fm : g.methods) {
-						String owner = fm.ident.owner.replace('.', '/');
-						if(fm.ident.name.length() > 2) {
-							g.srgName = fm.ident.name;
-							//System.out.println("MD: "+owner+"/"+fm.name+" "+fm.desc+" "+deobfOwner(owner)+"/"+srgName+" "+deobfDesc(fm.desc));
-							obf = false;
-						}
-						
-						srg.println("MD: "+owner+"/"+fm.ident.name+" "+fm.ident.desc+" "+deobfOwner(owner)+"/"+g.srgName+" "+deobfDesc(fm.ident.desc));
+				for(MethodDetails fm : g.methods) {
+					if(fm.ident.getName().length() > 2) {
+						g.srgName = fm.ident.getName();
+						obf = false;
 					}
-					
-					if(obf)
-						nObfMG++;
 				}
-				System.out.println(nObfMG+" method groups are obfuscated");
-				
-				int nObfFields = 0;
-				FieldNameGenerator fng = new FieldNameGenerator();
-				for(FieldIdentifier f : discoveredFields) {
-					if(f.name.length() <= 2 || enumFields.containsKey(f)) {
-						String srgName;
-						if(enumFields.containsKey(f))
-							srgName = enumFields.get(f);
-						else {
-							srgName = fng.generateName(f.owner, f.name, f.desc, deobfOwner(f.owner));
-							if(knownClassDeobfNames.containsKey(srgName)) {
-								srgName = knownClassDeobfNames.get(srgName);
-							}
+				
+				if(obf)
+					nObfMG++;
+			}
+			System.out.println(nObfMG+" method groups are obfuscated");
+			
+			// the fields that get a line in the SRG file, and their names
+			List<FieldIdentifier> obfFields = new ArrayList<>();
+			List<String> fieldNames = new ArrayList<>();
+			FieldNameGenerator fng = new FieldNameGenerator();
+			List<FieldIdentifier> sortedFields = new ArrayList<>(discoveredFields);
+			Collections.sort(sortedFields);
+			for(FieldIdentifier f : sortedFields) {
+				if(f.getName().length() <= 2 || enumFields.containsKey(f)) {
+					String srgName;
+					if(enumFields.containsKey(f))
+						srgName = enumFields.get(f);
+					else {
+						srgName = fng.generateName(f.getOwner(), f.getName(), f.getDesc(), deobfOwner(f.getOwner()));
+						if(knownClassDeobfNames.containsKey(srgName)) {
+							srgName = knownClassDeobfNames.get(srgName);
 						}
-						srg.println("FD: "+f.owner+"/"+f.name+" "+deobfOwner(f.owner)+"/"+srgName);
-						nObfFields++;
 					}
+					obfFields.add(f);
+					fieldNames.add(srgName);
 				}
-				System.out.println(nObfFields+" fields are obfuscated");
-				System.out.println(enumFields.size()+" enum fields found");
 			}
+			System.out.println(obfFields.size()+" fields are obfuscated");
+			System.out.println(enumFields.size()+" enum fields found");
+			
+			phase.count("obfuscatedGroups", nObfMG);
+			phase.count("obfuscatedFields", obfFields.size());
+			phase.end();
+			
+			phase = metrics.start("srg write");
+			writeSRG(new File(confdir, side+".srg"), classNames, groups, generatedNames, obfFields, fieldNames);
+			phase.count("classes", classNames.size());
+			phase.count("methods", sortedMethods.size());
+			phase.count("fields", obfFields.size());
+			phase.end();
 			
 			System.out.println("SRG file written");
 			
@@ -400,47 +905,144 @@ public class Main {
 			
 			
 			
-			long te0 = System.nanoTime();
+			phase = metrics.start("exception discovery");
 			// Exception discovery
-			System.out.println("Discovering exceptions from "+allMethods.size()+" methods");
-			for(Map.Entry<MethodIdentifier, MethodDetails> e : allMethods.entrySet()) {
-				//System.out.println(e.getKey());
-				getExceptions(loader, e.getKey());
+			String exceptionKey = null;
+			if(cache != null)
+				exceptionKey = AnalysisCache.getExceptionKey(discoveryKey, getObfuscationOverrides());
+			
+			boolean exceptionsCached = (cache != null && cache.loadExceptions(exceptionKey, hierarchy));
+			if(exceptionsCached)
+				System.out.println("Loaded exceptions for "+allMethods.size()+" methods from cache");
+			else {
+				System.out.println("Discovering exceptions from "+allMethods.size()+" methods");
+				for(ExceptionDiscoveryBuffer buf : discoverAllExceptions(sortedMethods))
+					mergeExceptionDiscoveryBuffer(buf);
 			}
 			
-			long te1 = System.nanoTime();
-			reportTime(te1 - te0);
+			methodGraph.finishEdges();
+			
+			if(cache != null && !exceptionsCached)
+				cache.saveExceptions(exceptionKey);
 			
-			doExceptionPropagation(loader, allMethods.values());
+			phase.count("cached", exceptionsCached ? 1 : 0);
+			phase.count("methods", sortedMethods.size());
+			phase.count("edges", methodGraph.getNumEdges());
+			phase.count("tryBlocks", methodGraph.tryBlocks.size());
+			phase.count("tryLists", methodGraph.getNumTryLists());
+			phase.count("exceptionTypes", exceptionTypes.size());
+			reportTime(phase.end());
+			System.out.println("Class cache: "+classNodes);
+			printGraphReport();
 			
-			addBogusThrows(loader, classNames);
+			PhaseMetrics.Phase propagation = metrics.start("propagation");
+			doExceptionPropagation(sortedMethods, propagation);
+			propagation.end();
 			
-			long te2 = System.nanoTime();
-			reportTime(te2 - te1);
+			phase = metrics.start("bogus throws");
+			List<BogusThrow> bogusThrows = addBogusThrows();
+			int numVictims = 0;
+			for(BogusThrow bt : bogusThrows)
+				if(bt.victim != null)
+					numVictims++;
+			System.out.println(bogusThrows.size()+" unreachable catch blocks, "+numVictims+" bogus throws clauses added");
+			for(BogusThrow bt : bogusThrows) {
+				Map<String, String> record = new LinkedHashMap<>();
+				record.put("method", bt.tryBlock.method.toString());
+				record.put("catches", bt.tryBlock.catches.getName());
+				record.put("victim", bt.victim == null ? null : bt.victim.toString());
+				phase.record("bogusThrows", record);
+			}
+			phase.count("unreachableCatchBlocks", bogusThrows.size());
+			phase.count("victims", numVictims);
+			reportTime(propagation.getWallTime() + phase.end());
 			
-			writeEXC(allMethods.values(), new File(confdir, side+".exc"));
+			phase = metrics.start("exc write");
+			writeEXC(sortedMethods, new File(confdir, side+".exc"));
+			phase.count("methods", sortedMethods.size());
+			phase.end();
 			
 			System.out.println("EXC file written");
+			
+			return metrics;
 		}
 	}
 
+	private static void writeSRG(File file, List<String> classNames, Set<MethodGroup> groups, List<String> generatedNames, List<FieldIdentifier> fields, List<String> fieldNames) throws IOException {
+		try (TextFileWriter srg = new TextFileWriter(file)) {
+			
+			srg.println("PK: . net/minecraft/src");
+			srg.println("PK: net net");
+			srg.println("PK: net/minecraft net/minecraft");
+			srg.println("PK: net/minecraft/client net/minecraft/client");
+			srg.println("PK: net/minecraft/client/main net/minecraft/client/main");
+			srg.println("PK: net/minecraft/server net/minecraft/server");
+			
+			for(String s : classNames) {
+				s = s.replace('.', '/');
+				srg.line().append("CL: ").append(s).append(' ').append(deobfOwner(s)).append(TextFileWriter.NEWLINE);
+			}
+			
+			int groupNo = 0;
+			for(MethodGroup g : groups) {
+				String srgName = generatedNames.get(groupNo++);
+				for(MethodDetails fm : g.methods) {
+					String owner = fm.ident.getOwner().replace('.', '/');
+					if(fm.ident.getName().length() > 2)
+						srgName = fm.ident.getName();
+					
+					srg.line().append("MD: ").append(owner).append('/').append(fm.ident.getName()).append(' ').append(fm.ident.getDesc())
+						.append(' ').append(deobfOwner(owner)).append('/').append(srgName).append(' ').append(deobfDesc(fm.ident.getDesc())).append(TextFileWriter.NEWLINE);
+				}
+			}
+			
+			for(int k = 0; k < fields.size(); k++) {
+				FieldIdentifier f = fields.get(k);
+				srg.line().append("FD: ").append(f.getOwner()).append('/').append(f.getName())
+					.append(' ').append(deobfOwner(f.getOwner())).append('/').append(fieldNames.get(k)).append(TextFileWriter.NEWLINE);
+			}
+		}
+	}
+	
+	// Most descriptors are used by several methods, so they are only deobfuscated once.
+	// Depends on knownClassDeobfNames, so resetState clears it.
+	private static ConcurrentHashMap<String, String> deobfDescs = new ConcurrentHashMap<>();
+	
 	private static String deobfDesc(String desc) {
-		String rv = "";
+		String rv = deobfDescs.get(desc);
+		if(rv != null)
+			return rv;
+		
+		StringBuilder sb = new StringBuilder(desc.length() + 32);
 		int pos = 0;
 		while(pos < desc.length()) {
-			switch(desc.charAt(pos)) {
-			case 'L':
+			char c = desc.charAt(pos);
+			if(c == 'L') {
 				int i = desc.indexOf(';', pos);
-				String n = desc.substring(pos+1, i);
-				rv += "L" + deobfOwner(n) + ";";
+				sb.append('L').append(deobfOwner(desc.substring(pos+1, i))).append(';');
 				pos = i+1;
-				break;
-			default: rv += desc.charAt(pos++); break;
+			} else {
+				sb.append(c);
+				pos++;
 			}
 		}
+		
+		rv = sb.toString();
+		deobfDescs.put(desc, rv);
 		return rv;
 	}
 
+	// Mapped classes for which deobfOwner(name).equals(name) isn't what it would be
+	// without the mapping. Exception discovery only depends on the mappings through
+	// these, when it decides whether a called method is obfuscated.
+	private static Set<String> getObfuscationOverrides() {
+		Set<String> rv = new TreeSet<>();
+		for(Map.Entry<String, String> e : knownClassDeobfNames.entrySet())
+			if(e.getValue().equals(e.getKey()) != e.getKey().contains("/"))
+				rv.add(e.getKey());
+		return rv;
+	}
+	
 	private static String deobfOwner(String owner) {
 		String p = knownClassDeobfNames.get(owner);
 		if(p != null)
@@ -453,11 +1055,9 @@ public class Main {
 	static List<String> getClassNames(File jarfile) throws Exception {
 		List<String> rv = new ArrayList<>();
 		
-		try (JarInputStream jf = new JarInputStream(new FileInputStream(jarfile))) {
-			JarEntry je;
+		try (MappedJar jar = new MappedJar(jarfile)) {
 			// find all .class files in the jar file
-			while((je = jf.getNextJarEntry()) != null) {
-				String n = je.getName();
+			for(String n : jar.getEntryNames()) {
 				if(n.startsWith("/"))
 					n = n.substring(1);
 				if(n.endsWith(".class"))
@@ -470,118 +1070,149 @@ public class Main {
 	
 	
 	
-	private static Collection<TryBlock> allTryCatchBlocks = new ArrayList<>();
+	private static void printGraphReport() {
+		Runtime rt = Runtime.getRuntime();
+		System.out.println("Method graph: "+methodGraph.methods.length+" methods, "+methodGraph.derived.length+" overrides, "
+			+methodGraph.getNumEdges()+" edges, "+methodGraph.tryBlocks.size()+" try blocks in "+methodGraph.getNumTryLists()+" lists; "
+			+(methodGraph.getArrayBytes() / 1024)+" KB of arrays, "+((rt.totalMemory() - rt.freeMemory()) / (1024 * 1024))+" MB heap in use");
+	}
 	
 	
 	
 	
 	
 	
-	private static Class<?>[] typesToClasses(Type[] types) throws Exception {
-		Class[] rv = new Class[types.length];
-		
-		// convert Types to Classes
-		for(int k = 0; k < types.length; k++) {
-			Type t = types[k];
-			
-			switch(t.getSort()) {
-			case Type.OBJECT:
-				rv[k] = loader.loadClass(t.getClassName());
-				break;
-			case Type.ARRAY:
-				rv[k] = Class.forName(t.getInternalName().replace('/', '.'), false, loader);
-				break;
-			case Type.BOOLEAN: rv[k] = boolean.class; break;
-			case Type.BYTE: rv[k] = byte.class; break;
-			case Type.CHAR: rv[k] = char.class; break;
-			case Type.DOUBLE: rv[k] = double.class; break;
-			case Type.FLOAT: rv[k] = float.class; break;
-			case Type.INT: rv[k] = int.class; break;
-			case Type.LONG: rv[k] = long.class; break;
-			case Type.SHORT: rv[k] = short.class; break;
-			default: throw new Exception(t.toString());
-			}
+	// Returns the first handler that catches the exception, or null.
+	// If markReachable is set, handlers for subclasses of the exception that come
+	// before it are marked reachable, since the exception could be one of those.
+	// Class ids are from the main hierarchy.
+	private static TryBlock searchExceptionHandlerTable(List<TryBlock> handlers, int exceptionClass, boolean markReachable) throws ClassNotFoundException {
+		for(TryBlock tb : handlers) {
+			if(markReachable && hierarchy.isSubtype(tb.catches.id, exceptionClass))
+				tb.isReachable = true;
+			if(hierarchy.isSubtype(exceptionClass, tb.catches.id))
+				return tb;
 		}
-		return rv;
+		return null;
 	}
 	
-	
-	
-	private static TryBlock searchExceptionHandlerTable(List<TryBlock> handlers, Class<?> exceptionClass, boolean markReachable) {
-		for(TryBlock tb : handlers) {
-			if(markReachable && exceptionClass.isAssignableFrom(tb.catches))
+	// Same, for a try block list from methodGraph
+	private static TryBlock searchExceptionHandlerTable(int tryList, int exceptionClass, boolean markReachable) throws ClassNotFoundException {
+		for(int k = methodGraph.tryListStart[tryList]; k < methodGraph.tryListStart[tryList + 1]; k++) {
+			TryBlock tb = methodGraph.tryBlocks.get(methodGraph.tryLists[k]);
+			if(markReachable && hierarchy.isSubtype(tb.catches.id, exceptionClass))
 				tb.isReachable = true;
-			if(tb.catches.isAssignableFrom(exceptionClass))
+			if(hierarchy.isSubtype(exceptionClass, tb.catches.id))
 				return tb;
 		}
 		return null;
 	}
 	
 	
-	private static Map<String, ClassNode> cachedNodes = new HashMap<>();
-	private static ClassNode getClassNode(String name) throws Exception {
-		ClassNode cn = cachedNodes.get(name);
-		if(cn != null)
-			return cn;
-		cn = new ClassNode();
-		try (InputStream in = loader.getResourceAsStream(name.replace('.', '/') + ".class")) {
-			new ClassReader(in).accept(cn, ClassReader.EXPAND_FRAMES);
+	private static ClassNodeCache classNodes;
+	
+	// Finds the type of exception thrown by an ATHROW instruction by looking at the
+	// instructions just before it. Handles the common cases:
+	//   new X; dup; ...; invokespecial X.<init>; athrow
+	//   (frame with the exception on the stack); athrow
+	//   (frame with the exception on the stack); astore n; aload n; athrow
+	//   checkcast X; athrow
+	//   invoke/getfield/getstatic returning X; athrow
+	// Returns the internal name of the type, or null if the method needs to be simulated.
+	private static String getThrownType(ClassNode cn, MethodNode mn, AbstractInsnNode athrow) {
+		AbstractInsnNode prev = getPreviousInsn(athrow);
+		if(prev == null)
+			return null;
+		
+		switch(prev.getOpcode()) {
+		case Opcodes.INVOKESPECIAL:
+			MethodInsnNode min = (MethodInsnNode)prev;
+			if(!min.name.equals("<init>"))
+				return getReturnedType(min.desc);
+			// in a constructor, this could be a call to this() or super()
+			if(mn.name.equals("<init>") && (min.owner.equals(cn.name) || min.owner.equals(cn.superName)))
+				return null;
+			return min.owner;
+		
+		case Opcodes.INVOKEVIRTUAL: case Opcodes.INVOKESTATIC: case Opcodes.INVOKEINTERFACE:
+			return getReturnedType(((MethodInsnNode)prev).desc);
+		
+		case Opcodes.GETFIELD: case Opcodes.GETSTATIC:
+			return getReturnedType(((FieldInsnNode)prev).desc);
+		
+		case Opcodes.CHECKCAST:
+			return ((TypeInsnNode)prev).desc;
+		
+		case Opcodes.ALOAD:
+			// exception stored in a local variable right at the start of a catch block
+			AbstractInsnNode store = getPreviousInsn(prev);
+			if(store == null || store.getOpcode() != Opcodes.ASTORE || ((VarInsnNode)store).var != ((VarInsnNode)prev).var)
+				return null;
+			return getFrameStackTop(getPreviousInsn(store));
+		
+		default:
+			return getFrameStackTop(prev);
 		}
-		cachedNodes.put(name, cn);
-		return cn;
 	}
 	
-
-	private static void getExceptions(URLClassLoader loader, MethodIdentifier method) throws Exception {
-		ClassNode cn = getClassNode(method.owner);
-		
-		MethodDetails methodGroup = allMethods.get(method);
+	// Skips labels and line numbers, but not frames
+	private static AbstractInsnNode getPreviousInsn(AbstractInsnNode in) {
+		do
+			in = in.getPrevious();
+		while(in instanceof LabelNode || in instanceof LineNumberNode);
+		return in;
+	}
+	
+	private static String getReturnedType(String desc) {
+		Type t = Type.getType(desc.substring(desc.indexOf(')') + 1));
+		if(t.getSort() != Type.OBJECT && t.getSort() != Type.ARRAY)
+			return null;
+		return t.getInternalName();
+	}
+	
+	private static String getFrameStackTop(AbstractInsnNode in) {
+		if(!(in instanceof FrameNode))
+			return null;
+		FrameNode frame = (FrameNode)in;
+		if(frame.type != Opcodes.F_SAME1 && frame.type != Opcodes.F_FULL && frame.type != Opcodes.F_NEW)
+			return null;
+		if(frame.stack == null || frame.stack.isEmpty())
+			return null;
+		Object top = frame.stack.get(frame.stack.size() - 1);
+		return top instanceof String ? (String)top : null;
+	}
+	
+	// A class read again with expanded frames for simulateThrownTypes. It's only read the
+	// first time one of its methods needs it, then shared by the rest of them.
+	static class ExpandedClass {
+		private final String name;
+		private ClassNode node;
 		
-		for(MethodDetails derived : methodGroup.allDerived) {
-			ExceptionEntry e = new ExceptionEntry();
-			e.method = derived;
-			methodGroup.exceptionsFrom.add(e);
-			
-			e = new ExceptionEntry();
-			e.method = methodGroup;
-			derived.exceptionsTo.add(e);
+		ExpandedClass(String name) {
+			this.name = name;
 		}
 		
-		if(method.owner.equals("mp"))
-			method=method;
+		ClassNode get() throws IOException {
+			if(node == null) {
+				node = new ClassNode();
+				new ClassReader(hierarchy.getClassBytes(name)).accept(node, ClassReader.EXPAND_FRAMES);
+			}
+			return node;
+		}
+	}
+	
+	// Runs the whole method through an AnalyzerAdapter and returns the type on top
+	// of the stack at each ATHROW instruction, in order. Only used when getThrownType
+	// can't tell.
+	private static List<String> simulateThrownTypes(ExpandedClass owner, MethodNode methodToSimulate) throws Exception {
+		ClassNode cn = owner.get();
 		
-		for(MethodNode mn : (List<MethodNode>)cn.methods) {
-			//System.out.println(" "+mn.name+mn.desc);
-			if(!mn.name.equals(method.name) || !mn.desc.equals(method.desc))
+		for(MethodNode mn : cn.methods) {
+			if(!mn.name.equals(methodToSimulate.name) || !mn.desc.equals(methodToSimulate.desc))
 				continue;
 			
-			Set<LabelNode> seenLabels = new HashSet<>();
-			
 			AnalyzerAdapter analyzer = new AnalyzerAdapter(cn.name, mn.access, mn.name, mn.desc, null);
 			
-			// maps handler node to try block object.
-			// uses the handler node as a key because sometimes multiple
-			// exception table entries are generated for a single catch block?
-			Map<LabelNode, TryBlock> tryCatchData = new HashMap<>();
-			
-			for(TryCatchBlockNode tcbn : mn.tryCatchBlocks) {
-				if(tcbn.type == null) continue; // ignore finally blocks
-				
-				if(tryCatchData.containsKey(tcbn.handler))
-					continue; // ignore "split" exception table entries? (actually, merge them)
-				
-				TryBlock tb = new TryBlock();
-				tb.method = methodGroup;
-				tb.node = tcbn;
-				tb.catches = Class.forName(tcbn.type.replace('/', '.'), false, loader);
-				tb.isReachable = false;
-				tryCatchData.put(tcbn.handler, tb);
-				allTryCatchBlocks.add(tb);
-				
-				if(Error.class.isAssignableFrom(tb.catches) || RuntimeException.class.isAssignableFrom(tb.catches) || tb.catches.isAssignableFrom(RuntimeException.class))
-					tb.isReachable = true;
-			}
-			
 			analyzer.visitCode();
 			for(TryCatchBlockNode tcbn : mn.tryCatchBlocks)
 				tcbn.accept(analyzer);
@@ -590,219 +1221,320 @@ public class Main {
 				for(LocalVariableNode lvn : mn.localVariables)
 					lvn.accept(analyzer);
 			
+			List<String> rv = new ArrayList<>();
 			for(AbstractInsnNode in = mn.instructions.getFirst(); in != null; in = in.getNext()) {
-				if(in instanceof LabelNode) {
-					seenLabels.add((LabelNode)in);
-					
-				} else if(in.getOpcode() == Opcodes.ATHROW) {
-					String type = (String)analyzer.stack.get(analyzer.stack.size() - 1);
-					type = type.replace('/', '.');
-					Class<?> excClass = Class.forName(type, false, loader);
-					
-					// Determine which try-catch blocks this throw is inside.
-					List<TryBlock> insideHandlers = new ArrayList<TryBlock>();
-					for(TryCatchBlockNode tcb : (List<TryCatchBlockNode>)mn.tryCatchBlocks) {
-						if(seenLabels.contains(tcb.start) && !seenLabels.contains(tcb.end)) {
-							if(tcb.type != null) // ignore finally blocks
-								if(!insideHandlers.contains(tryCatchData.get(tcb.handler)))
-									insideHandlers.add(tryCatchData.get(tcb.handler));
-						}
-					}
-					
-					
-					// Find the first one, out of those, that will catch the exception
-					TryBlock caughtBy = searchExceptionHandlerTable(insideHandlers, excClass, true);
-					if(caughtBy == null && isCheckedException(excClass))
-						methodGroup.exceptions.add(type);
-					
-				} else if(in instanceof MethodInsnNode) {
-					
-					// Determine which try-catch blocks this call is inside.
-					List<TryBlock> insideHandlers = new ArrayList<TryBlock>();
-					for(TryCatchBlockNode tcb : (List<TryCatchBlockNode>)mn.tryCatchBlocks) {
-						if(seenLabels.contains(tcb.start) && !seenLabels.contains(tcb.end)) {
-							if(tcb.type != null) // ignore finally blocks
-								if(!insideHandlers.contains(tryCatchData.get(tcb.handler)))
-									insideHandlers.add(tryCatchData.get(tcb.handler));
-						}
+				if(in.getOpcode() == Opcodes.ATHROW)
+					rv.add((String)analyzer.stack.get(analyzer.stack.size() - 1));
+				in.accept(analyzer);
+			}
+			return rv;
+		}
+		
+		throw new RuntimeException("Method not found: "+owner.name+"."+methodToSimulate.name+methodToSimulate.desc);
+	}
+	
+
+	// Edges, try blocks and thrown exceptions found by exception discovery, to be added
+	// to methodGraph. Classes are analysed in parallel, and their buffers are merged in the
+	// same order as the methods so the graph and the exception type ids come out the same
+	// as a sequential run.
+	static class ExceptionDiscoveryBuffer {
+		// edge k is from edges[2k] to edges[2k+1] (method indices), through edgeTryBlocks[k]
+		int[] edges = new int[64];
+		List<List<TryBlock>> edgeTryBlocks = new ArrayList<>();
+		List<TryBlock> tryBlocks = new ArrayList<>();
+		// throwers[k] throws thrown[k]
+		List<MethodDetails> throwers = new ArrayList<>();
+		List<ClassInfo> thrown = new ArrayList<>();
+		
+		void addException(MethodDetails thrower, ClassInfo type) {
+			throwers.add(thrower);
+			thrown.add(type);
+		}
+		
+		void addEdge(MethodDetails from, MethodDetails to, List<TryBlock> tryBlocks) {
+			int k = edgeTryBlocks.size();
+			if(k * 2 == edges.length)
+				edges = Arrays.copyOf(edges, edges.length * 2);
+			edges[k * 2] = from.index;
+			edges[k * 2 + 1] = to.index;
+			edgeTryBlocks.add(tryBlocks);
+		}
+	}
+	
+	// Runs getExceptions for each method, with one task per class.
+	static List<ExceptionDiscoveryBuffer> discoverAllExceptions(List<MethodDetails> methods) throws Exception {
+		List<Callable<ExceptionDiscoveryBuffer>> tasks = new ArrayList<>();
+		
+		// methods are sorted by owner, so each class's methods are together
+		List<MethodDetails> classMethods = null;
+		for(MethodDetails method : methods) {
+			if(classMethods == null || classMethods.get(0).ident.ownerId != method.ident.ownerId) {
+				final List<MethodDetails> thisClassMethods = classMethods = new ArrayList<>();
+				tasks.add(new Callable<ExceptionDiscoveryBuffer>() {
+					@Override
+					public ExceptionDiscoveryBuffer call() throws Exception {
+						ExceptionDiscoveryBuffer out = new ExceptionDiscoveryBuffer();
+						ExpandedClass expanded = new ExpandedClass(thisClassMethods.get(0).ident.getOwner());
+						for(MethodDetails method : thisClassMethods)
+							getExceptions(method, out, expanded);
+						return out;
 					}
-					
-					MethodInsnNode min = (MethodInsnNode)in;
-					
-					Class<?> systemOwnerClass = null;
-					
-					boolean isCalledMethodObfuscated =
-						!deobfOwner(min.owner).equals(min.owner)
-						|| min.name.length() <= 2;
-					
-					if(min.owner.startsWith("["))
+				});
+			}
+			classMethods.add(method);
+		}
+		
+		return runTasks(tasks);
+	}
+	
+	static void mergeExceptionDiscoveryBuffer(ExceptionDiscoveryBuffer buf) {
+		for(TryBlock tb : buf.tryBlocks)
+			methodGraph.addTryBlock(tb);
+		
+		for(int k = 0; k < buf.throwers.size(); k++)
+			buf.throwers.get(k).addException(exceptionTypes.intern(buf.thrown.get(k)));
+		
+		// the calls covered by the same try blocks share a list
+		Map<List<TryBlock>, Integer> tryListIds = new IdentityHashMap<>();
+		for(int k = 0; k < buf.edgeTryBlocks.size(); k++) {
+			List<TryBlock> tryBlocks = buf.edgeTryBlocks.get(k);
+			Integer tryList = tryListIds.get(tryBlocks);
+			if(tryList == null)
+				tryListIds.put(tryBlocks, tryList = methodGraph.addTryList(tryBlocks));
+			methodGraph.addEdge(buf.edges[k * 2], buf.edges[k * 2 + 1], tryList);
+		}
+	}
+	
+	private static void getExceptions(MethodDetails methodGroup, ExceptionDiscoveryBuffer out, ExpandedClass expanded) throws Exception {
+		MethodIdentifier method = methodGroup.ident;
+		ClassNodeCache.Entry classEntry = classNodes.get(method.getOwner());
+		ClassNode cn = classEntry.node;
+		
+		for(int k = methodGraph.derivedStart[methodGroup.index]; k < methodGraph.derivedStart[methodGroup.index + 1]; k++)
+			out.addEdge(methodGroup, methodGraph.methods[methodGraph.derived[k]], Collections.<TryBlock>emptyList());
+		
+		if(method.getOwner().equals("mp"))
+			method=method;
+		
+		MethodNode mn = classEntry.getMethod(method.getName(), method.getDesc());
+		if(mn == null)
+			throw new RuntimeException("Method not found: "+method);
+		
+		// maps handler node to try block object.
+		// uses the handler node as a key because sometimes multiple
+		// exception table entries are generated for a single catch block?
+		Map<LabelNode, TryBlock> tryCatchData = new HashMap<>();
+		
+		for(TryCatchBlockNode tcbn : mn.tryCatchBlocks) {
+			if(tcbn.type == null) continue; // ignore finally blocks
+			
+			if(tryCatchData.containsKey(tcbn.handler))
+				continue; // ignore "split" exception table entries? (actually, merge them)
+			
+			TryBlock tb = new TryBlock();
+			tb.method = methodGroup;
+			tb.catches = hierarchy.get(tcbn.type.replace('/', '.'));
+			tb.isReachable = false;
+			tryCatchData.put(tcbn.handler, tb);
+			out.tryBlocks.add(tb);
+			
+			ClassInfo runtimeException = hierarchy.get("java.lang.RuntimeException");
+			ClassInfo errorClass = hierarchy.get("java.lang.Error");
+			if(hierarchy.isSubtype(tb.catches.id, errorClass.id) || hierarchy.isSubtype(tb.catches.id, runtimeException.id) || hierarchy.isSubtype(runtimeException.id, tb.catches.id))
+				tb.isReachable = true;
+		}
+		
+		// nothing else to do if the method doesn't throw or call anything
+		boolean needsAnalysis = false;
+		for(AbstractInsnNode in = mn.instructions.getFirst(); in != null && !needsAnalysis; in = in.getNext())
+			needsAnalysis = (in.getOpcode() == Opcodes.ATHROW || in instanceof MethodInsnNode);
+		if(!needsAnalysis)
+			return;
+		
+		TryCoverage coverage = new TryCoverage(mn.tryCatchBlocks, tryCatchData);
+		
+		// only filled in if a thrown type can't be found from the nearby instructions
+		List<String> simulatedThrownTypes = null;
+		int throwIndex = 0;
+		
+		for(AbstractInsnNode in = mn.instructions.getFirst(); in != null; in = in.getNext()) {
+			if(in instanceof LabelNode) {
+				coverage.visitLabel((LabelNode)in);
+				
+			} else if(in.getOpcode() == Opcodes.ATHROW) {
+				String type = getThrownType(cn, mn, in);
+				if(type == null) {
+					if(simulatedThrownTypes == null)
+						simulatedThrownTypes = simulateThrownTypes(expanded, mn);
+					type = simulatedThrownTypes.get(throwIndex);
+				}
+				throwIndex++;
+				type = type.replace('/', '.');
+				ClassInfo excClass = hierarchy.get(type);
+				
+				// Determine which try-catch blocks this throw is inside.
+				List<TryBlock> insideHandlers = coverage.getHandlers();
+				
+				// Find the first one, out of those, that will catch the exception
+				TryBlock caughtBy = searchExceptionHandlerTable(insideHandlers, excClass.id, true);
+				if(caughtBy == null && isCheckedException(excClass))
+					out.addException(methodGroup, excClass);
+				
+			} else if(in instanceof MethodInsnNode) {
+				
+				// Determine which try-catch blocks this call is inside.
+				List<TryBlock> insideHandlers = coverage.getHandlers();
+				
+				MethodInsnNode min = (MethodInsnNode)in;
+				
+				ClassInfo systemOwnerClass = null;
+				
+				boolean isCalledMethodObfuscated =
+					!deobfOwner(min.owner).equals(min.owner)
+					|| min.name.length() <= 2;
+				
+				if(min.owner.startsWith("["))
+					isCalledMethodObfuscated = false;
+				
+				if(!isCalledMethodObfuscated)
+					systemOwnerClass = hierarchy.find(min.owner.replace('/', '.'));
+				else {
+					systemOwnerClass = systemHierarchy.find(min.owner.replace('/', '.'));
+					if(systemOwnerClass != null)
 						isCalledMethodObfuscated = false;
+				}
+				
+				String argsDesc = min.desc.substring(0, min.desc.indexOf(')') + 1);
+				String signature = min.name + argsDesc;
+				
+				String calledOwner = min.owner.replace('/', '.');
+				MethodDetails calledGroup = allMethods.get(calledOwner, min.name, min.desc);
+				
+				if(systemOwnerClass == null) {
 					
-					if(!isCalledMethodObfuscated)
-						try {
-							systemOwnerClass = Class.forName(min.owner.replace('/', '.'), false, isCalledMethodObfuscated ? ClassLoader.getSystemClassLoader() : loader);
-						} catch(ClassNotFoundException e) {
+					if(calledGroup == null) {
+						
+						// try superclasses
+						for(ClassInfo sc : hierarchy.get(calledOwner).getAllSupers()) {
+							calledGroup = allMethods.get(sc.getName(), min.name, min.desc);
+							if(calledGroup != null)
+								break;
+							
+							if(sc.getDeclaredMethodBySignature(signature) != null) {
+								systemOwnerClass = sc;
+								break;
+							}
+							
+							//System.out.println(sc.getName()+"/"+min.name+min.desc+" not found");
 						}
-					else
-						try {
-							systemOwnerClass = Class.forName(min.owner.replace('/', '.'), false, ClassLoader.getSystemClassLoader());
-							isCalledMethodObfuscated = false;
-						} catch(ClassNotFoundException e) {
+						
+						if(systemOwnerClass != null)
+							; //System.out.println(systemOwnerClass+" matches "+calledOwner+"/"+min.name+min.desc);
+						else if(calledGroup == null) {
+							throw new Exception("unknown obfuscated method: "+calledOwner+"/"+min.name+min.desc+" from "+method);
+							//continue;
 						}
+					}
+				}
+				
+				if(systemOwnerClass != null) {
+					// called method is a method of a system class, so
+					// we can easily get its exception list
 					
+					MemberInfo calledMethod = null;
 					
-					
-					Type calledType = Type.getMethodType(min.desc);
-					Type[] argTypes = calledType.getArgumentTypes();
-					Class[] argClasses = typesToClasses(argTypes);
-					
-					
-					
-					MethodIdentifier called = new MethodIdentifier(min.owner.replace('/', '.'), min.name, min.desc);
-					MethodDetails calledGroup = allMethods.get(called);
-					
-					if(systemOwnerClass == null) {
-						
-						if(calledGroup == null) {
-							
+					if(min.name.equals("<init>"))
+						calledMethod = systemOwnerClass.getDeclaredConstructor(argsDesc);
+					else {
+						calledMethod = systemOwnerClass.getDeclaredMethodBySignature(signature);
+						if(calledMethod == null) {
 							// try superclasses
-							for(Class<?> sc : getAllSupers(Class.forName(called.owner, false, loader))) {
-								MethodIdentifier _try = new MethodIdentifier(sc.getName(), min.name, min.desc);
-								calledGroup = allMethods.get(_try);
-								if(calledGroup != null) {
-									called = _try;
-									break;
-								}
-								
-								try {
-									sc.getDeclaredMethod(min.name, argClasses);
-									systemOwnerClass = sc;
+							for(ClassInfo sc : systemOwnerClass.getAllSupers()) {
+								calledMethod = sc.getDeclaredMethodBySignature(signature);
+								if(calledMethod != null)
 									break;
-								} catch(NoSuchMethodException e) {
-								}
-								
-								//System.out.println(_try+" not found");
-							}
-							
-							if(systemOwnerClass != null)
-								; //System.out.println(systemOwnerClass+" matches "+called);
-							else if(calledGroup == null) {
-								throw new Exception("unknown obfuscated method: "+called+" from "+method);
-								//continue;
 							}
 						}
 					}
+					if(calledMethod == null)
+						throw new NoSuchMethodException(systemOwnerClass.getName()+"."+min.name+min.desc);
 					
-					if(systemOwnerClass != null) {
-						// called method is a method of a system class, so
-						// we can easily get its exception list
+					for(String excClassName : calledMethod.exceptions) {
+						ClassInfo excClass = hierarchy.get(excClassName);
 						
-						Class<?>[] exceptionTypes = null;
+						// CloneNotSupportedException is not actually thrown by arrays.
+						if(excClassName.equals("java.lang.CloneNotSupportedException") && systemOwnerClass.isArray())
+							continue;
 						
-						if(min.name.equals("<init>"))
-							exceptionTypes = systemOwnerClass.getDeclaredConstructor(argClasses).getExceptionTypes();
-						else {
-							try {
-								exceptionTypes = systemOwnerClass.getDeclaredMethod(min.name, argClasses).getExceptionTypes();
-							} catch(NoSuchMethodException e) {
-								// try superclasses
-								for(Class<?> sc : getAllSupers(systemOwnerClass)) {
-									try {
-										exceptionTypes = sc.getDeclaredMethod(min.name, argClasses).getExceptionTypes();
-										break;
-									} catch(NoSuchMethodException e2) {
-									}
-								}
-								if(exceptionTypes == null)
-									throw (NoSuchMethodException)new NoSuchMethodException().initCause(e);
-							}
-						}
+						// Find where this exception is caught.
+						TryBlock caughtBy = searchExceptionHandlerTable(insideHandlers, excClass.id, true);
 						
-						for(Class<?> excClass : exceptionTypes) {
-							
-							// CloneNotSupportedException is not actually thrown by arrays.
-							if(excClass == CloneNotSupportedException.class && systemOwnerClass.isArray())
-								continue;
-							
-							// Find where this exception is caught.
-							TryBlock caughtBy = null;
-							for(TryBlock tb : insideHandlers) {
-								if(excClass.isAssignableFrom(tb.catches))
-									tb.isReachable = true;
-								if(tb.catches.isAssignableFrom(excClass)) {
-									caughtBy = tb;
-									break;
-								}
-							}
-							
-							if(caughtBy != null)
-								caughtBy.isReachable = true;
+						if(caughtBy != null)
+							caughtBy.isReachable = true;
+						
+						else {
+							// Not caught; if checked, must appear in method exceptions list
 							
-							else {
-								// Not caught; if checked, must appear in method exceptions list
-								
-								if(isCheckedException(excClass))
-									methodGroup.exceptions.add(excClass.getName());
-							}
+							if(isCheckedException(excClass))
+								out.addException(methodGroup, excClass);
 						}
-						
-					} else {
-						
-						// called method has unknown exception list.
-						// add a record so whatever exceptions it throws
-						// will be propagated to this one.
-						
-						ExceptionEntry entry = new ExceptionEntry();
-						entry.tryBlocks = insideHandlers;
-						entry.method = calledGroup;
-						methodGroup.exceptionsFrom.add(entry);
-						
-						entry = new ExceptionEntry();
-						entry.tryBlocks = insideHandlers;
-						entry.method = methodGroup;
-						calledGroup.exceptionsTo.add(entry);
-						for(MethodDetails md2 : calledGroup.allDerived)
-							md2.exceptionsTo.add(entry);
 					}
+					
+				} else {
+					
+					// called method has unknown exception list.
+					// add an edge so whatever exceptions it throws
+					// will be propagated to this one.
+					// (the methods overriding it are reached through its own edges to them)
+					out.addEdge(methodGroup, calledGroup, insideHandlers);
 				}
-				in.accept(analyzer);
 			}
-			
-			return;
 		}
-		
-		throw new RuntimeException("Method not found: "+method);
-		//System.out.println("Method not found: "+method);
 	}
 	
-	private static boolean isCheckedException(Class<?> excClass) {
-		if(RuntimeException.class.isAssignableFrom(excClass)) return false;
-		if(Error.class.isAssignableFrom(excClass)) return false;
-		if(excClass == Throwable.class) return false;
+	private static boolean isCheckedException(ClassInfo excClass) throws ClassNotFoundException {
+		if(excClass.hierarchy.get("java.lang.RuntimeException").isAssignableFrom(excClass)) return false;
+		if(excClass.hierarchy.get("java.lang.Error").isAssignableFrom(excClass)) return false;
+		if(excClass.getName().equals("java.lang.Throwable")) return false;
 		return true;
 		
 	}
 
-	private static void addBogusThrows(URLClassLoader loader, Collection<String> classNames) throws Exception {
+	// An unreachable catch block, and the method chosen to get a bogus throws
+	// clause for its exception so the block is reachable (null if none was found).
+	static class BogusThrow {
+		final TryBlock tryBlock;
+		final MethodDetails victim;
+		
+		BogusThrow(TryBlock tryBlock, MethodDetails victim) {
+			this.tryBlock = tryBlock;
+			this.victim = victim;
+		}
+	}
+	
+	private static List<BogusThrow> addBogusThrows() throws Exception {
 		System.out.println("Finding unreachable catch blocks...");
 		
-		for(TryBlock tb : allTryCatchBlocks) {
-			//if(tb.method.ident.owner.equals("bem"))
-			//	System.out.println("for "+tb.catches+" in "+tb.method.ident);
+		List<BogusThrow> rv = new ArrayList<>();
+		
+		// whether every call to method m's group, other than from m itself, catches exception type e,
+		// by ((long)m << 32) | e; the same method is often a candidate for several catch blocks
+		Map<Long, Boolean> caughtByOtherCallers = new HashMap<>();
+		
+		for(TryBlock tb : methodGraph.tryBlocks) {
 			if(!tb.isReachable) {
 				System.out.println("unreachable catch block: for "+tb.catches+" in "+tb.method.ident);
 				
 				// find all the methods we could add a bogus throws clause to
 				// to make this catch block reachable
 				Set<MethodDetails> possible = new TreeSet<>();
-				for(ExceptionEntry ee : tb.method.exceptionsFrom) {
-					if(!ee.tryBlocks.contains(tb))
-						continue; // method call outside this try block
-					
-					if(searchExceptionHandlerTable(ee.tryBlocks, tb.catches, false) != tb)
+				for(int c = methodGraph.tryBlockCallStart[tb.id]; c < methodGraph.tryBlockCallStart[tb.id + 1]; c++) {
+					int k = methodGraph.tryBlockCalls[c];
+					if(searchExceptionHandlerTable(methodGraph.calleeTryList[k], tb.catches.id, false) != tb)
 						continue; // exception would be caught by a different try block
 					
-					possible.add(ee.method);
+					possible.add(methodGraph.methods[methodGraph.callee[k]]);
 				}
 				
 				// Victim preference order:
@@ -814,21 +1546,12 @@ public class Main {
 				MethodDetails onlyCalledHere = null;
 				MethodDetails onlyCalledHereAndPrivate = null;
 				for(MethodDetails md : possible) {
-					if(md.exceptionsTo.size() == 1 && md.group.methods.size() == 1) {
+					int numCallers = methodGraph.callerStart[md.index + 1] - methodGraph.callerStart[md.index];
+					if(numCallers == 1 && md.group.methods.size() == 1) {
 						onlyCalledHere = md;
 						
-					} else if(withOtherCatchBlocks == null) {
-						
+					} else if(withOtherCatchBlocks == null && isCaughtByOtherCallers(md, tb.catches.id, caughtByOtherCallers)) {
 						withOtherCatchBlocks = md;
-						
-						// see if, everywhere else this method is called, the exception
-						// would be caught
-						for(MethodDetails gmd : md.group.methods)
-							for(ExceptionEntry ee : gmd.exceptionsTo)
-								if(!ee.method.equals(md) && searchExceptionHandlerTable(ee.tryBlocks, tb.catches, false) == null) {
-									withOtherCatchBlocks = null;
-									break;
-								}
 					}
 				}
 				
@@ -837,81 +1560,178 @@ public class Main {
 				else if(withOtherCatchBlocks != null) picked = withOtherCatchBlocks;
 				else if(onlyCalledHere != null) picked = onlyCalledHere;
 				
-				if(picked.ident.name.equals("ac"))
-					picked = picked;
-				
 				if(picked == null)
 					System.out.println("  Bogus exception victim: NONE CHOSEN!");
 				else {
 					System.out.println("  Bogus exception victim: "+picked);
 					for(MethodDetails md : picked.group.methods)
-						md.exceptions.add(tb.catches.getName());
+						md.addException(exceptionTypes.intern(tb.catches));
 				}
 				
+				rv.add(new BogusThrow(tb, picked));
 			}
 		}
+		
+		return rv;
+	}
+	
+	// See if, everywhere else this method's group is called, the exception would be caught
+	private static boolean isCaughtByOtherCallers(MethodDetails md, int exceptionClass, Map<Long, Boolean> memo) throws ClassNotFoundException {
+		Long key = ((long)md.index << 32) | exceptionClass;
+		Boolean rv = memo.get(key);
+		if(rv != null)
+			return rv;
+		
+		rv = true;
+		search: for(MethodDetails gmd : md.group.methods)
+			for(int k = methodGraph.callerStart[gmd.index]; k < methodGraph.callerStart[gmd.index + 1]; k++)
+				if(methodGraph.caller[k] != md.index && searchExceptionHandlerTable(methodGraph.callerTryList[k], exceptionClass, false) == null) {
+					rv = false;
+					break search;
+				}
+		
+		memo.put(key, rv);
+		return rv;
 	}
 
-	static void doExceptionPropagation(ClassLoader loader, Collection<MethodDetails> methods) throws Exception {
-		boolean changed = true;
-		int passNo = 0;
+	// Propagates exceptions from called methods to their callers.
+	// Components of the call graph are solved in reverse topological order, so
+	// everything a component calls is final before the component is visited.
+	// Inside a cycle, a worklist revisits a method only when a method it calls in
+	// the cycle has gained exceptions.
+	// Each visit goes through the method's calls in order, like the old fixpoint passes did,
+	// so each method gets its exceptions in the same order (see MethodDetails.exceptionOrder).
+	static void doExceptionPropagation(Collection<MethodDetails> methods, PhaseMetrics.Phase phase) throws Exception {
 		System.out.println("Beginning exception propagation on "+methods.size()+" methods");
-		while(changed) {
-			changed = false;
+		
+		CallGraph graph = CallGraph.build(methodGraph);
+		System.out.println("Call graph has "+graph.components.size()+" components, "+graph.getNumCyclicComponents()+" with cycles (largest has "+graph.getLargestComponentSize()+" methods)");
+		
+		int numAdded = 0;
+		int maxPasses = 0;
+		Set<MethodDetails> changedGroups = new HashSet<>();
+		
+		for(int c = 0; c < graph.components.size(); c++) {
+			List<MethodDetails> component = graph.components.get(c);
 			
-			passNo++;
-			int numAdded = 0;
-			int numGroups = 0;
+			if(!graph.isCyclic(c)) {
+				// everything it calls is already done
+				for(MethodDetails g1 : component)
+					numAdded += propagateCalls(g1, changedGroups);
+				continue;
+			}
+			
+			// methods that will be visited later in this pass, or in the next one
+			Set<MethodDetails> queued = new HashSet<>(component);
+			List<MethodDetails> worklist = new ArrayList<>(component);
 			
-			for(MethodDetails g1 : methods) {
-				boolean changedGroup = false;
+			int passNo = 0;
+			while(!worklist.isEmpty()) {
+				passNo++;
+				List<MethodDetails> nextWorklist = new ArrayList<>();
 				
-				for(ExceptionEntry e : g1.exceptionsFrom) {
+				for(MethodDetails md : worklist) {
+					queued.remove(md);
+					int added = propagateCalls(md, changedGroups);
+					if(added == 0)
+						continue;
+					numAdded += added;
 					
-					exceptions: for(String excClassName : e.method.exceptions) {
-						Class<?> excClass = loader.loadClass(excClassName);
-						
-						TryBlock caughtBy = searchExceptionHandlerTable(e.tryBlocks, excClass, true);
-						
-						if(caughtBy == null) {
-							if(g1.exceptions.add(excClassName)) {
-								if(g1.group.srgName.equals("run")/* || excClassName.equals("java.lang.CloneNotSupportedException")*/)
-									System.err.println("adding "+excClassName+" to "+g1.group.srgName+" from "+e.method);
-								numAdded++;
-								changedGroup = true;
-							}
-						}
+					for(int k = methodGraph.callerStart[md.index]; k < methodGraph.callerStart[md.index + 1]; k++) {
+						MethodDetails caller = methodGraph.methods[methodGraph.caller[k]];
+						if(graph.getComponent(caller) == c && queued.add(caller))
+							nextWorklist.add(caller);
 					}
 				}
 				
-				changed |= changedGroup;
-				
-				if(changedGroup)
-					numGroups++;
+				worklist = nextWorklist;
 			}
 			
-			System.out.println("Pass "+passNo+" - added "+numAdded+" exceptions to "+numGroups+" method groups");
+			maxPasses = Math.max(maxPasses, passNo);
 		}
 		
-		System.out.println("Exception propagation done after "+passNo+" passes");
+		System.out.println("Added "+numAdded+" exceptions to "+changedGroups.size()+" method groups");
+		System.out.println("Exception propagation done; cycles needed at most "+maxPasses+" passes");
+		
+		phase.count("components", graph.components.size());
+		phase.count("cyclicComponents", graph.getNumCyclicComponents());
+		phase.count("exceptionsAdded", numAdded);
+		phase.count("groupsChanged", changedGroups.size());
+		phase.count("passes", maxPasses);
 	}
 	
-	static void writeEXC(Collection<MethodDetails> methods, File file) throws Exception {
-		try (PrintWriter exc = new PrintWriter(file)) {
-			for(MethodDetails mg : methods) {
+	// Adds the exceptions that caller's calls don't catch to caller's exceptions, going
+	// through the calls in order, and each called method's exceptions in the order it got them.
+	// Returns the number of exceptions added.
+	private static int propagateCalls(MethodDetails caller, Set<MethodDetails> changedGroups) throws Exception {
+		int numAdded = 0;
+		for(int k = methodGraph.calleeStart[caller.index]; k < methodGraph.calleeStart[caller.index + 1]; k++) {
+			MethodDetails called = methodGraph.methods[methodGraph.callee[k]];
+			int tryList = methodGraph.calleeTryList[k];
+			
+			for(int id : called.exceptionOrder) {
+				if(caller.exceptions.get(id))
+					continue;
+				if(tryList != 0 && searchExceptionHandlerTable(tryList, exceptionTypes.get(id).id, true) != null)
+					continue;
 				
-				String exceptionString = "";
-				for(String throwsClass : mg.exceptions) {
-					throwsClass = deobfOwner(throwsClass.replace('.','/'));
-					if(!exceptionString.isEmpty())
-						exceptionString += "," + throwsClass;
-					else
-						exceptionString = throwsClass;
-				}
+				caller.addException(id);
+				numAdded++;
 				
-				exc.println(deobfOwner(mg.ident.owner.replace('.', '/')) + "." + mg.group.srgName + deobfDesc(mg.ident.desc) + "=" + exceptionString + "|" + getEXCArgumentString(mg.ident.desc));
+				if(caller.group.srgName.equals("run"))
+					System.err.println("adding "+exceptionTypes.get(id).getName()+" to "+caller.group.srgName+" from "+called);
 			}
 		}
+		
+		if(numAdded > 0)
+			changedGroups.add(caller);
+		return numAdded;
+	}
+	
+	// The lines are built and encoded in parallel, a shard of methods at a time,
+	// then written in the same order as the methods.
+	static void writeEXC(List<MethodDetails> methods, File file) throws Exception {
+		int nShards = (pool == null ? 1 : pool.getParallelism() * 4);
+		
+		List<Callable<ByteBuffer>> tasks = new ArrayList<>(nShards);
+		for(int k = 0; k < nShards; k++) {
+			final List<MethodDetails> shard = methods.subList(k * methods.size() / nShards, (k + 1) * methods.size() / nShards);
+			tasks.add(new Callable<ByteBuffer>() {
+				@Override
+				public ByteBuffer call() throws Exception {
+					StringBuilder sb = new StringBuilder(shard.size() * 128);
+					for(MethodDetails mg : shard)
+						appendEXCLine(sb, mg);
+					return TextFileWriter.encode(sb);
+				}
+			});
+		}
+		
+		try (TextFileWriter exc = new TextFileWriter(file)) {
+			for(ByteBuffer block : runTasks(tasks))
+				exc.write(block);
+		}
+	}
+	
+	private static void appendEXCLine(StringBuilder sb, MethodDetails mg) {
+		sb.append(deobfOwner(mg.ident.getOwner().replace('.', '/'))).append('.').append(mg.group.srgName).append(deobfDesc(mg.ident.getDesc())).append('=');
+		
+		// same order as when the exceptions were kept in a HashSet
+		Set<String> exceptionNames = new HashSet<>();
+		for(int id : mg.exceptionOrder)
+			exceptionNames.add(exceptionTypes.get(id).getName());
+		
+		boolean first = true;
+		for(String throwsClass : exceptionNames) {
+			if(!first)
+				sb.append(',');
+			sb.append(deobfOwner(throwsClass.replace('.','/')));
+			first = false;
+		}
+		
+		sb.append('|');
+		appendEXCArgumentString(sb, mg.ident.getDesc());
+		sb.append(TextFileWriter.NEWLINE);
 	}
 	
 	static String getEXCArgumentString(Type t) {
@@ -934,22 +1754,12 @@ public class Main {
 		}
 	}
 	
-	static String getEXCArgumentString(String desc) {
+	static void appendEXCArgumentString(StringBuilder sb, String desc) {
 		Type[] argTypes = Type.getMethodType(desc).getArgumentTypes();
-		List<String> argNames = new ArrayList<>(argTypes.length);
-		
-		
 		for(int k = 0; k < argTypes.length; k++) {
-			argNames.add("par"+(k+1)+getEXCArgumentString(argTypes[k]));
-		}
-		
-		
-		StringBuilder rv = new StringBuilder();
-		for(String s : argNames) {
-			if(rv.length() > 0)
-				rv.append(',');
-			rv.append(s);
+			if(k > 0)
+				sb.append(',');
+			sb.append("par").append(k + 1).append(getEXCArgumentString(argTypes[k]));
 		}
-		return rv.toString();
 	}
 }
@@ -0,0 +1,176 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+// Reads entries from a jar (zip) file mapped into memory. The central directory
+// is parsed once when the file is opened, so entry names can be listed without
+// inflating anything, and each entry is found through a hash index.
+// Doesn't support zip64 or encrypted entries, which jars of classes don't use.
+// Safe to read from several threads.
+class MappedJar implements Closeable {
+	
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer data;
+	
+	// entries in the same order as in the file, like JarInputStream would read them
+	private final String[] names;
+	private final int[] method, compressedSize, size, localHeaderOffset;
+	private final Map<String, Integer> index = new HashMap<>();
+	
+	MappedJar(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new ZipException(file+" is too large");
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			
+			int end = findEndHeader(file);
+			int numEntries = data.getShort(end + 10) & 0xFFFF;
+			int pos = data.getInt(end + 16);
+			
+			String[] cdNames = new String[numEntries];
+			int[] cdMethod = new int[numEntries], cdCompressedSize = new int[numEntries], cdSize = new int[numEntries];
+			final int[] cdOffset = new int[numEntries];
+			
+			for(int k = 0; k < numEntries; k++) {
+				if(data.getInt(pos) != CENTRAL_HEADER)
+					throw new ZipException("Bad central directory entry in "+file);
+				
+				if((data.getShort(pos + 8) & 1) != 0)
+					throw new ZipException("Encrypted entry in "+file);
+				cdMethod[k] = data.getShort(pos + 10) & 0xFFFF;
+				cdCompressedSize[k] = data.getInt(pos + 20);
+				cdSize[k] = data.getInt(pos + 24);
+				int nameLength = data.getShort(pos + 28) & 0xFFFF;
+				int extraLength = data.getShort(pos + 30) & 0xFFFF;
+				int commentLength = data.getShort(pos + 32) & 0xFFFF;
+				cdOffset[k] = data.getInt(pos + 42);
+				
+				byte[] name = new byte[nameLength];
+				ByteBuffer buf = data.duplicate();
+				buf.position(pos + 46);
+				buf.get(name);
+				cdNames[k] = new String(name, StandardCharsets.UTF_8);
+				
+				pos += 46 + nameLength + extraLength + commentLength;
+			}
+			
+			// the central directory is usually in file order already, but doesn't have to be
+			Integer[] order = new Integer[numEntries];
+			for(int k = 0; k < numEntries; k++)
+				order[k] = k;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Integer.compare(cdOffset[a], cdOffset[b]);
+				}
+			});
+			
+			this.names = new String[numEntries];
+			this.method = new int[numEntries];
+			this.compressedSize = new int[numEntries];
+			this.size = new int[numEntries];
+			this.localHeaderOffset = new int[numEntries];
+			for(int k = 0; k < numEntries; k++) {
+				int e = order[k];
+				this.names[k] = cdNames[e];
+				this.method[k] = cdMethod[e];
+				this.compressedSize[k] = cdCompressedSize[e];
+				this.size[k] = cdSize[e];
+				this.localHeaderOffset[k] = cdOffset[e];
+				if(!index.containsKey(cdNames[e]))
+					index.put(cdNames[e], k);
+			}
+		
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	// The end of central directory record is at the end of the file, followed by a comment of up to 64KB.
+	private int findEndHeader(File file) throws ZipException {
+		int limit = Math.max(0, data.limit() - 22 - 65535);
+		for(int pos = data.limit() - 22; pos >= limit; pos--)
+			if(data.getInt(pos) == END_HEADER && pos + 22 + (data.getShort(pos + 20) & 0xFFFF) == data.limit())
+				return pos;
+		throw new ZipException("Not a zip file: "+file);
+	}
+	
+	// The mapping itself stays until the buffer is garbage collected.
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	List<String> getEntryNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+	
+	// Returns null if there's no such entry.
+	byte[] read(String name) throws IOException {
+		Integer e = index.get(name);
+		if(e == null)
+			return null;
+		
+		int pos = localHeaderOffset[e];
+		if(data.getInt(pos) != LOCAL_HEADER)
+			throw new ZipException("Bad local header for "+name);
+		pos += 30 + (data.getShort(pos + 26) & 0xFFFF) + (data.getShort(pos + 28) & 0xFFFF);
+		
+		byte[] compressed = new byte[compressedSize[e]];
+		ByteBuffer buf = data.duplicate();
+		buf.position(pos);
+		buf.get(compressed);
+		
+		switch(method[e]) {
+		case 0:
+			return compressed;
+		
+		case 8:
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(compressed);
+				byte[] rv = new byte[size[e]];
+				int n = 0;
+				while(n < rv.length) {
+					int read = inflater.inflate(rv, n, rv.length - n);
+					if(read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					n += read;
+				}
+				if(n != rv.length)
+					throw new ZipException("Truncated entry "+name);
+				return rv;
+			} catch(DataFormatException ex) {
+				throw new ZipException("Bad compressed data in "+name+": "+ex.getMessage());
+			} finally {
+				inflater.end();
+			}
+		
+		default:
+			throw new ZipException("Unsupported compression method "+method[e]+" for "+name);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+import org.objectweb.asm.Opcodes;
+
+
+class MemberInfo {
+	final String name;
+	final String desc;
+	final int access;
+	final String[] exceptions; // only for methods
+	
+	MemberInfo(String name, String desc, int access, String[] exceptions) {
+		this.name = name;
+		this.desc = desc;
+		this.access = access;
+		this.exceptions = exceptions;
+	}
+	
+	String getArgumentsDesc() {
+		return desc.substring(0, desc.indexOf(')') + 1);
+	}
+	
+	String getReturnDesc() {
+		return desc.substring(desc.indexOf(')') + 1);
+	}
+	
+	boolean isStatic() {
+		return (access & Opcodes.ACC_STATIC) != 0;
+	}
+	
+	boolean isPublic() {
+		return (access & Opcodes.ACC_PUBLIC) != 0;
+	}
+	
+	@Override
+	public String toString() {
+		return name + desc;
+	}
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+// Derived methods and exception edges, stored as int arrays indexed by
+// MethodDetails.index (compressed sparse rows) instead of as collections in
+// every MethodDetails. Most methods have no derived methods and no edges, so
+// they only cost a few array slots.
+//
+// An exception edge from A to B means A gets the exceptions that B throws,
+// except the ones caught by the edge's try blocks. A has an edge to each
+// method it calls, and to each method that overrides it.
+//
+// Derived methods are known when the graph is created. Edges are added during
+// exception discovery, and callee and caller lists are only there after finishEdges.
+class MethodGraph {
+	
+	// sorted, so method indices are the same in every run
+	final Main.MethodDetails[] methods;
+	
+	// the methods that override method m are derived[derivedStart[m] ... derivedStart[m+1]-1]
+	final int[] derivedStart;
+	final int[] derived;
+	
+	// try blocks by id
+	final List<Main.TryBlock> tryBlocks = new ArrayList<>();
+	
+	// try block list l is tryLists[tryListStart[l] ... tryListStart[l+1]-1], innermost first.
+	// List 0 is the empty list.
+	int[] tryListStart = new int[256];
+	int[] tryLists = new int[256];
+	private int numTryLists = 1;
+	
+	// edges in the order they were added
+	private int[] edgeFrom = new int[1024];
+	private int[] edgeTo = new int[1024];
+	private int[] edgeTryList = new int[1024];
+	private int numEdges;
+	
+	// after finishEdges: the edges from method m are callee[calleeStart[m] ... calleeStart[m+1]-1],
+	// and the edges to it are caller[callerStart[m] ... callerStart[m+1]-1],
+	// each with the try block list from calleeTryList or callerTryList.
+	int[] calleeStart, callee, calleeTryList;
+	int[] callerStart, caller, callerTryList;
+	
+	// after finishEdges: the positions in callee of the edges from calls inside try block t
+	// are tryBlockCalls[tryBlockCallStart[t] ... tryBlockCallStart[t+1]-1], in order.
+	int[] tryBlockCallStart, tryBlockCalls;
+	
+	// overridePairs[k+1] overrides overridePairs[k], for even k.
+	// Pairs with methods that aren't in sortedMethods are ignored.
+	MethodGraph(List<Main.MethodDetails> sortedMethods, List<Main.MethodDetails> overridePairs) {
+		methods = sortedMethods.toArray(new Main.MethodDetails[0]);
+		for(int k = 0; k < methods.length; k++)
+			methods[k].index = k;
+		
+		int[] from = new int[overridePairs.size() / 2];
+		int[] to = new int[from.length];
+		int n = 0;
+		for(int k = 0; k < overridePairs.size(); k += 2) {
+			int base = overridePairs.get(k).index, over = overridePairs.get(k + 1).index;
+			if(base < 0 || over < 0)
+				continue;
+			from[n] = base;
+			to[n++] = over;
+		}
+		
+		derivedStart = new int[methods.length + 1];
+		int[] allDerived = new int[n];
+		groupBy(from, to, null, n, derivedStart, allDerived, null);
+		
+		// remove duplicates, which are sorted next to each other
+		int[] sorted = new int[n];
+		int count = 0;
+		for(int m = 0; m < methods.length; m++) {
+			int start = derivedStart[m], end = derivedStart[m + 1];
+			Arrays.sort(allDerived, start, end);
+			derivedStart[m] = count;
+			for(int k = start; k < end; k++)
+				if(k == start || allDerived[k] != allDerived[k - 1])
+					sorted[count++] = allDerived[k];
+		}
+		derivedStart[methods.length] = count;
+		derived = Arrays.copyOf(sorted, count);
+	}
+	
+	// Stable counting sort of n (key, value, extra) triples by key.
+	// Fills in start (length methods.length + 1) and the grouped values and extras.
+	private void groupBy(int[] keys, int[] values, int[] extras, int n, int[] start, int[] groupedValues, int[] groupedExtras) {
+		for(int k = 0; k < n; k++)
+			start[keys[k] + 1]++;
+		for(int m = 0; m < methods.length; m++)
+			start[m + 1] += start[m];
+		
+		int[] next = Arrays.copyOf(start, methods.length);
+		for(int k = 0; k < n; k++) {
+			int pos = next[keys[k]]++;
+			groupedValues[pos] = values[k];
+			if(extras != null)
+				groupedExtras[pos] = extras[k];
+		}
+	}
+	
+	int addTryBlock(Main.TryBlock tb) {
+		tb.id = tryBlocks.size();
+		tryBlocks.add(tb);
+		return tb.id;
+	}
+	
+	// Returns the id of a new list with the same try blocks, which must have been added already.
+	int addTryList(List<Main.TryBlock> list) {
+		if(list.isEmpty())
+			return 0;
+		
+		int start = tryListStart[numTryLists];
+		if(start + list.size() > tryLists.length)
+			tryLists = Arrays.copyOf(tryLists, Math.max(tryLists.length * 2, start + list.size()));
+		for(Main.TryBlock tb : list)
+			tryLists[start++] = tb.id;
+		
+		if(numTryLists + 2 > tryListStart.length)
+			tryListStart = Arrays.copyOf(tryListStart, tryListStart.length * 2);
+		tryListStart[++numTryLists] = start;
+		return numTryLists - 1;
+	}
+	
+	void addEdge(int from, int to, int tryList) {
+		if(numEdges == edgeFrom.length) {
+			edgeFrom = Arrays.copyOf(edgeFrom, numEdges * 2);
+			edgeTo = Arrays.copyOf(edgeTo, numEdges * 2);
+			edgeTryList = Arrays.copyOf(edgeTryList, numEdges * 2);
+		}
+		edgeFrom[numEdges] = from;
+		edgeTo[numEdges] = to;
+		edgeTryList[numEdges] = tryList;
+		numEdges++;
+	}
+	
+	// Builds the callee and caller lists. Each method's edges stay in the order they were added.
+	void finishEdges() {
+		calleeStart = new int[methods.length + 1];
+		callee = new int[numEdges];
+		calleeTryList = new int[numEdges];
+		groupBy(edgeFrom, edgeTo, edgeTryList, numEdges, calleeStart, callee, calleeTryList);
+		
+		callerStart = new int[methods.length + 1];
+		caller = new int[numEdges];
+		callerTryList = new int[numEdges];
+		groupBy(edgeTo, edgeFrom, edgeTryList, numEdges, callerStart, caller, callerTryList);
+		
+		edgeFrom = edgeTo = edgeTryList = null;
+		tryListStart = Arrays.copyOf(tryListStart, numTryLists + 1);
+		tryLists = Arrays.copyOf(tryLists, tryListStart[numTryLists]);
+		
+		indexTryBlockCalls();
+	}
+	
+	// Counts, then fills in, the edges inside each try block.
+	// Only a try block's own method's edges count, since that's where its try lists came from.
+	private void indexTryBlockCalls() {
+		tryBlockCallStart = new int[tryBlocks.size() + 1];
+		for(int pass = 0; pass < 2; pass++) {
+			int[] next = (pass == 0 ? null : Arrays.copyOf(tryBlockCallStart, tryBlocks.size()));
+			for(int m = 0; m < methods.length; m++)
+				for(int k = calleeStart[m]; k < calleeStart[m + 1]; k++)
+					for(int l = tryListStart[calleeTryList[k]]; l < tryListStart[calleeTryList[k] + 1]; l++) {
+						int t = tryLists[l];
+						if(tryBlocks.get(t).method.index != m)
+							continue;
+						if(pass == 0)
+							tryBlockCallStart[t + 1]++;
+						else
+							tryBlockCalls[next[t]++] = k;
+					}
+			
+			if(pass == 0) {
+				for(int t = 0; t < tryBlocks.size(); t++)
+					tryBlockCallStart[t + 1] += tryBlockCallStart[t];
+				tryBlockCalls = new int[tryBlockCallStart[tryBlocks.size()]];
+			}
+		}
+	}
+	
+	int getNumEdges() {
+		return callee.length;
+	}
+	
+	int getNumTryLists() {
+		return numTryLists;
+	}
+	
+	// Size of the int arrays, in bytes
+	long getArrayBytes() {
+		long ints = derivedStart.length + derived.length + tryListStart.length + tryLists.length
+			+ 2 * calleeStart.length + 4 * callee.length + tryBlockCallStart.length + tryBlockCalls.length;
+		return ints * 4;
+	}
+}
@@ -1,39 +1,52 @@
 class MethodIdentifier implements Comparable<MethodIdentifier> {
-	public final String owner;
-	public final String name;
-	public final String desc;
+	// ids from Main.symbols
+	final int ownerId;
+	final int nameId;
+	final int descId;
 	
 	public MethodIdentifier(String owner, String name, String desc) {
-		this.owner = owner;
-		this.name = name;
-		this.desc = desc;
+		this.ownerId = Main.symbols.intern(owner);
+		this.nameId = Main.symbols.intern(name);
+		this.descId = Main.symbols.intern(desc);
+	}
+	
+	public String getOwner() {
+		return Main.symbols.get(ownerId);
+	}
+	
+	public String getName() {
+		return Main.symbols.get(nameId);
+	}
+	
+	public String getDesc() {
+		return Main.symbols.get(descId);
 	}
 	
 	@Override
 	public boolean equals(Object obj) {
 		if(obj instanceof MethodIdentifier) {
 			MethodIdentifier fm = (MethodIdentifier)obj;
-			return fm.desc.equals(desc) && fm.name.equals(name) && fm.owner.equals(owner);
+			return fm.descId == descId && fm.nameId == nameId && fm.ownerId == ownerId;
 		}
 		return false;
 	}
 	
 	@Override
 	public int hashCode() {
-		return desc.hashCode() ^ name.hashCode() ^ owner.hashCode();
+		return MethodMap.hash(ownerId, nameId, descId);
 	}
 	
 	@Override
 	public String toString() {
-		return owner + "/" + name + desc;
+		return getOwner() + "/" + getName() + getDesc();
 	}
 	
 	@Override
 	public int compareTo(MethodIdentifier arg0) {
-		int i = owner.compareTo(arg0.owner);
+		int i = (ownerId == arg0.ownerId ? 0 : getOwner().compareTo(arg0.getOwner()));
 		if(i != 0) return i;
-		i = name.compareTo(arg0.name);
+		i = (nameId == arg0.nameId ? 0 : getName().compareTo(arg0.getName()));
 		if(i != 0) return i;
-		return desc.compareTo(arg0.desc);
+		return descId == arg0.descId ? 0 : getDesc().compareTo(arg0.getDesc());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+// Map from method identifiers to MethodDetails, using open addressing (linear probing)
+// over the identifiers' symbol ids, which are kept in a flat int array next to the values.
+// Iteration order is unspecified; use sortedValues where the order matters.
+// Not thread-safe, but any number of threads can call get while nothing is being added.
+class MethodMap {
+	
+	// owner, name and desc ids of the method in each slot
+	private int[] keys;
+	private Main.MethodDetails[] values;
+	private int size;
+	
+	MethodMap() {
+		clear();
+	}
+	
+	static int hash(int owner, int name, int desc) {
+		int h = owner * 0x9E3779B9 + name * 0x85EBCA6B + desc * 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+	
+	// Returns the slot holding the method, or the empty slot where it would go
+	private int findSlot(int owner, int name, int desc) {
+		int mask = values.length - 1;
+		for(int slot = hash(owner, name, desc) & mask; ; slot = (slot + 1) & mask) {
+			if(values[slot] == null)
+				return slot;
+			if(keys[slot * 3] == owner && keys[slot * 3 + 1] == name && keys[slot * 3 + 2] == desc)
+				return slot;
+		}
+	}
+	
+	Main.MethodDetails get(MethodIdentifier ident) {
+		return values[findSlot(ident.ownerId, ident.nameId, ident.descId)];
+	}
+	
+	// Same as get(new MethodIdentifier(owner, name, desc)), but doesn't add
+	// the strings to the symbol table if there's no such method.
+	Main.MethodDetails get(String owner, String name, String desc) {
+		int ownerId = Main.symbols.find(owner), nameId = Main.symbols.find(name), descId = Main.symbols.find(desc);
+		if(ownerId < 0 || nameId < 0 || descId < 0)
+			return null;
+		return values[findSlot(ownerId, nameId, descId)];
+	}
+	
+	// Adds the method under its identifier, replacing any other method with the same identifier
+	void put(Main.MethodDetails md) {
+		if((size + 1) * 4 > values.length * 3)
+			resize(values.length * 2);
+		
+		int slot = findSlot(md.ident.ownerId, md.ident.nameId, md.ident.descId);
+		if(values[slot] == null) {
+			keys[slot * 3] = md.ident.ownerId;
+			keys[slot * 3 + 1] = md.ident.nameId;
+			keys[slot * 3 + 2] = md.ident.descId;
+			size++;
+		}
+		values[slot] = md;
+	}
+	
+	private void resize(int capacity) {
+		Main.MethodDetails[] oldValues = values;
+		keys = new int[capacity * 3];
+		values = new Main.MethodDetails[capacity];
+		size = 0;
+		for(Main.MethodDetails md : oldValues)
+			if(md != null)
+				put(md);
+	}
+	
+	// Removes every method that wasn't found in a class during discovery
+	// (such as library methods that discovered methods override).
+	void retainDiscovered() {
+		Main.MethodDetails[] oldValues = values;
+		Arrays.fill(keys, 0);
+		values = new Main.MethodDetails[oldValues.length];
+		size = 0;
+		for(Main.MethodDetails md : oldValues)
+			if(md != null && md.discovered)
+				put(md);
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	void clear() {
+		keys = new int[1024 * 3];
+		values = new Main.MethodDetails[1024];
+		size = 0;
+	}
+	
+	List<Main.MethodDetails> values() {
+		List<Main.MethodDetails> rv = new ArrayList<>(size);
+		for(Main.MethodDetails md : values)
+			if(md != null)
+				rv.add(md);
+		return rv;
+	}
+	
+	// Sorted by identifier, which also puts each class's methods together
+	List<Main.MethodDetails> sortedValues() {
+		List<Main.MethodDetails> rv = values();
+		Collections.sort(rv);
+		return rv;
+	}
+}
@@ -1,71 +1,97 @@
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-
-import org.objectweb.asm.Type;
 
 
 public class MethodNameGenerator {
 	
-	private Map<String, Integer> indexByInfoString = new HashMap<String, Integer>();
-
-	private String makeDescInfo(String desc, Map<String, String> deobfMap) {
-		if(desc.startsWith("[")) {
-			int levels = 0;
-			while(desc.startsWith("[")) {
-				levels++;
-				desc = desc.substring(1);
-			}
-			return levels + makeDescInfo(desc, deobfMap);
-		}
-		if(desc.startsWith("Ljava/")) {
-			int i = desc.lastIndexOf('/');
-			return desc.substring(i+1, desc.length()-1);
-		}
-		if(desc.startsWith("L")) {
-			String cl = desc.substring(1, desc.length() - 1);
-			if(deobfMap.containsKey(cl))
-				return stripPkg(deobfMap.get(cl));
-		}
-		return desc.substring(0, 1);
-	}
+	private final NameCounter indexByInfoString = new NameCounter();
+	private final Map<String, String> deobfMap;
+	
+	// memoized parts of info strings, by method descriptor and by owner
+	private final Map<String, String> descInfos = new HashMap<String, String>();
+	private final Map<String, String> ownerInfos = new HashMap<String, String>();
+	
+	// reused for every name
+	private final StringBuilder info = new StringBuilder();
+	private final StringBuilder name = new StringBuilder();
 	
-	private String stripPkg(String in) {
-		if(in.contains("/"))
-			in = in.substring(in.lastIndexOf('/') + 1);
-		return in;
+	public MethodNameGenerator(Map<String, String> deobfMap) {
+		this.deobfMap = deobfMap;
 	}
 	
-	int maxIndex = 0;
-
-	public String generateMethodName(Set<MethodIdentifier> idents, Map<String, String> deobfMap, ClassLoader loader) {
-		String desc = idents.iterator().next().desc;
-		Type type = Type.getMethodType(desc);
+	// Appends the info for the type descriptor at pos, and returns the position after it.
+	private int appendTypeInfo(StringBuilder sb, String desc, int pos) {
+		int start = pos;
+		while(desc.charAt(pos) == '[')
+			pos++;
+		if(pos > start)
+			sb.append(pos - start);
 		
-		String infoString = "";
+		char c = desc.charAt(pos);
+		if(c != 'L') {
+			sb.append(c);
+			return pos + 1;
+		}
 		
-		if(idents.size() == 1) {
-			String owner = idents.iterator().next().owner;
-			if(deobfMap.containsKey(owner))
-				infoString += stripPkg(deobfMap.get(owner)) + "_";
+		int end = desc.indexOf(';', pos);
+		if(desc.startsWith("java/", pos + 1))
+			sb.append(desc, desc.lastIndexOf('/', end) + 1, end);
+		else {
+			String deobf = deobfMap.get(desc.substring(pos + 1, end));
+			if(deobf != null)
+				sb.append(deobf, deobf.lastIndexOf('/') + 1, deobf.length());
+			else
+				sb.append('L');
 		}
+		return end + 1;
+	}
+	
+	// The return type's info followed by each argument's
+	private String getDescInfo(String desc) {
+		String rv = descInfos.get(desc);
+		if(rv != null)
+			return rv;
 		
-		infoString += makeDescInfo(type.getReturnType().getDescriptor(), deobfMap);
-		for(Type at : type.getArgumentTypes())
-			infoString += makeDescInfo(at.getDescriptor(), deobfMap);
+		StringBuilder sb = new StringBuilder();
+		int argsEnd = desc.indexOf(')');
+		appendTypeInfo(sb, desc, argsEnd + 1);
+		for(int pos = 1; pos < argsEnd; )
+			pos = appendTypeInfo(sb, desc, pos);
+		
+		rv = sb.toString();
+		descInfos.put(desc, rv);
+		return rv;
+	}
+	
+	private String getOwnerInfo(String owner) {
+		String rv = ownerInfos.get(owner);
+		if(rv != null)
+			return rv;
 		
-		if(!indexByInfoString.containsKey(infoString))
-			indexByInfoString.put(infoString, 0);
+		String deobf = deobfMap.get(owner);
+		rv = (deobf == null ? "" : deobf.substring(deobf.lastIndexOf('/') + 1) + "_");
+		ownerInfos.put(owner, rv);
+		return rv;
+	}
+	
+	int maxIndex = 0;
+
+	// first is the lowest identifier in the group
+	public String generateMethodName(MethodIdentifier first, int groupSize) {
+		info.setLength(0);
+		if(groupSize == 1)
+			info.append(getOwnerInfo(first.getOwner()));
+		info.append(getDescInfo(first.getDesc()));
 		
-		int index = indexByInfoString.get(infoString);
-		indexByInfoString.put(infoString, index+1);
+		int index = indexByInfoString.next(info);
 		
 		if(index > maxIndex) {
 			maxIndex = index;
 			//System.out.println("max index: "+maxIndex);
 		}
 		
-		return "func_" + index + "_" + infoString;
+		name.setLength(0);
+		return name.append("func_").append(index).append('_').append(info).toString();
 	}
 
 }
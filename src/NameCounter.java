@@ -0,0 +1,50 @@
+// Counts the names generated for each info string, so that each name gets the next index.
+// An open addressing table of strings to ints; lookups compare the builder's
+// contents in place, so only info strings that haven't been seen before are copied.
+class NameCounter {
+	
+	private String[] keys = new String[1024];
+	private int[] counts = new int[1024];
+	private int size;
+	
+	// Returns the number of earlier calls with the same info string.
+	int next(CharSequence info) {
+		int mask = keys.length - 1;
+		for(int slot = hash(info) & mask; ; slot = (slot + 1) & mask) {
+			if(keys[slot] == null) {
+				keys[slot] = info.toString();
+				counts[slot] = 1;
+				if(++size * 4 > keys.length * 3)
+					resize();
+				return 0;
+			}
+			if(keys[slot].contentEquals(info))
+				return counts[slot]++;
+		}
+	}
+	
+	// same as String.hashCode, spread out
+	private static int hash(CharSequence s) {
+		int h = 0;
+		for(int k = 0; k < s.length(); k++)
+			h = 31 * h + s.charAt(k);
+		return h ^ (h >>> 16);
+	}
+	
+	private void resize() {
+		String[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new String[oldKeys.length * 2];
+		counts = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for(int k = 0; k < oldKeys.length; k++) {
+			if(oldKeys[k] == null)
+				continue;
+			int slot = hash(oldKeys[k]) & mask;
+			while(keys[slot] != null)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[k];
+			counts[slot] = oldCounts[k];
+		}
+	}
+}
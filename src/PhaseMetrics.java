@@ -0,0 +1,296 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+// Wall time, CPU time, allocation, peak heap use and item counts for each phase of
+// one side's run. Each phase is emitted as JFR events, which are only recorded while
+// a recording is running (for example with -XX:StartFlightRecording), and all of them
+// can be written to a JSON file at the end of the run, along with any records
+// (such as the bogus throws victims) a phase added.
+// The jdk.jfr event API needs Java 11 or later.
+//
+// CPU time is the whole process's, so it includes the worker pool, GC and the JIT.
+// Allocation is what the thread running the phase allocated, plus what the tasks it
+// ran on the worker pool allocated (see measureAllocation); other threads, such as
+// the GC's and the JIT's, aren't counted.
+// Peak heap is the sum of each heap pool's peak since the phase started.
+// Phases must not overlap.
+class PhaseMetrics {
+	
+	@Name("createsrg.Phase")
+	@Label("Phase")
+	@Category("CreateSRG")
+	@Description("One phase of generating a side's SRG and EXC files")
+	@StackTrace(false)
+	static class PhaseEvent extends Event {
+		@Label("Side")
+		String side;
+		
+		@Label("Phase")
+		String phase;
+		
+		@Label("CPU Time")
+		@Timespan
+		long cpuTime;
+		
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+		
+		@Label("Peak Heap")
+		@DataAmount
+		long peakHeap;
+	}
+	
+	@Name("createsrg.PhaseCount")
+	@Label("Phase Count")
+	@Category("CreateSRG")
+	@Description("Number of items (classes, methods, edges, ...) handled by a phase")
+	@StackTrace(false)
+	static class PhaseCountEvent extends Event {
+		@Label("Side")
+		String side;
+		
+		@Label("Phase")
+		String phase;
+		
+		@Label("Item")
+		String item;
+		
+		@Label("Count")
+		long count;
+	}
+	
+	class Phase {
+		final String name;
+		private final PhaseEvent event = new PhaseEvent();
+		private final long startWall, startCpu, startAllocated, startTaskAllocated;
+		private long wallTime, cpuTime, allocated, peakHeap;
+		private boolean ended;
+		
+		// in the order they were counted
+		final Map<String, Long> counts = new LinkedHashMap<>();
+		// lists of records by name, each record being field names and values in order
+		final Map<String, List<Map<String, String>>> records = new LinkedHashMap<>();
+		
+		private Phase(String name) {
+			this.name = name;
+			resetPeakHeap();
+			event.begin();
+			startWall = System.nanoTime();
+			startCpu = getProcessCpuTime();
+			startAllocated = getCurrentThreadAllocatedBytes();
+			startTaskAllocated = taskAllocated.get();
+		}
+		
+		void count(String item, long count) {
+			counts.put(item, count);
+		}
+		
+		// Only written to the JSON file.
+		void record(String list, Map<String, String> fields) {
+			List<Map<String, String>> l = records.get(list);
+			if(l == null)
+				records.put(list, l = new ArrayList<>());
+			l.add(fields);
+		}
+		
+		// Returns the wall time in nanoseconds.
+		long end() {
+			if(ended)
+				throw new IllegalStateException("Phase "+name+" already ended");
+			ended = true;
+			
+			wallTime = System.nanoTime() - startWall;
+			long cpu = getProcessCpuTime();
+			cpuTime = (cpu < 0 || startCpu < 0 ? -1 : cpu - startCpu);
+			long alloc = getCurrentThreadAllocatedBytes();
+			allocated = (alloc < 0 || startAllocated < 0 ? -1 : alloc - startAllocated + taskAllocated.get() - startTaskAllocated);
+			peakHeap = getPeakHeap();
+			
+			event.end();
+			if(event.shouldCommit()) {
+				event.side = side;
+				event.phase = name;
+				event.cpuTime = cpuTime;
+				event.allocated = allocated;
+				event.peakHeap = peakHeap;
+				event.commit();
+				
+				for(Map.Entry<String, Long> e : counts.entrySet()) {
+					PhaseCountEvent ce = new PhaseCountEvent();
+					ce.side = side;
+					ce.phase = name;
+					ce.item = e.getKey();
+					ce.count = e.getValue();
+					ce.commit();
+				}
+			}
+			
+			return wallTime;
+		}
+		
+		long getWallTime() {
+			return wallTime;
+		}
+	}
+	
+	private final String side;
+	private final List<Phase> phases = new ArrayList<>();
+	
+	PhaseMetrics(String side) {
+		this.side = side;
+	}
+	
+	Phase start(String name) {
+		Phase p = new Phase(name);
+		phases.add(p);
+		return p;
+	}
+	
+	
+	
+	private static long getProcessCpuTime() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if(os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+		return -1;
+	}
+	
+	// Bytes allocated by tasks run through measureAllocation, on any thread
+	private static final AtomicLong taskAllocated = new AtomicLong();
+	
+	// Wraps a task that will run on another thread, so what it allocates counts towards
+	// the phase that is running.
+	static <T> Callable<T> measureAllocation(final Callable<T> task) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				long start = getCurrentThreadAllocatedBytes();
+				try {
+					return task.call();
+				} finally {
+					if(start >= 0)
+						taskAllocated.addAndGet(getCurrentThreadAllocatedBytes() - start);
+				}
+			}
+		};
+	}
+	
+	private static long getCurrentThreadAllocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)threads;
+		if(!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	private static void resetPeakHeap() {
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP && pool.isValid())
+				pool.resetPeakUsage();
+	}
+	
+	private static long getPeakHeap() {
+		long total = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP && pool.isValid())
+				total += pool.getPeakUsage().getUsed();
+		return total;
+	}
+	
+	
+	
+	// Writes an array with an object for each side, in order.
+	// Times are in nanoseconds, and -1 where the JVM can't measure them.
+	static void writeJSON(File file, List<PhaseMetrics> sides) throws IOException {
+		try (TextFileWriter out = new TextFileWriter(file)) {
+			out.println("[");
+			for(int k = 0; k < sides.size(); k++)
+				sides.get(k).writeJSON(out, k + 1 < sides.size());
+			out.println("]");
+		}
+	}
+	
+	private void writeJSON(TextFileWriter out, boolean more) throws IOException {
+		out.println("  {");
+		out.println("    \"side\": " + quote(side) + ",");
+		out.println("    \"phases\": [");
+		for(int k = 0; k < phases.size(); k++) {
+			Phase p = phases.get(k);
+			StringBuilder sb = out.line();
+			sb.append("      {\"name\": ").append(quote(p.name));
+			sb.append(", \"wallNanos\": ").append(p.wallTime);
+			sb.append(", \"cpuNanos\": ").append(p.cpuTime);
+			sb.append(", \"allocatedBytes\": ").append(p.allocated);
+			sb.append(", \"peakHeapBytes\": ").append(p.peakHeap);
+			sb.append(", \"counts\": {");
+			boolean first = true;
+			for(Map.Entry<String, Long> e : p.counts.entrySet()) {
+				if(!first)
+					sb.append(", ");
+				sb.append(quote(e.getKey())).append(": ").append(e.getValue());
+				first = false;
+			}
+			sb.append("}");
+			for(Map.Entry<String, List<Map<String, String>>> e : p.records.entrySet()) {
+				sb.append(", ").append(quote(e.getKey())).append(": [");
+				for(int r = 0; r < e.getValue().size(); r++) {
+					if(r > 0)
+						sb.append(", ");
+					appendObject(sb, e.getValue().get(r));
+				}
+				sb.append("]");
+			}
+			sb.append("}").append(k + 1 < phases.size() ? "," : "").append(TextFileWriter.NEWLINE);
+		}
+		out.println("    ]");
+		out.println(more ? "  }," : "  }");
+	}
+	
+	private static void appendObject(StringBuilder sb, Map<String, String> fields) {
+		sb.append('{');
+		boolean first = true;
+		for(Map.Entry<String, String> e : fields.entrySet()) {
+			if(!first)
+				sb.append(", ");
+			sb.append(quote(e.getKey())).append(": ").append(e.getValue() == null ? "null" : quote(e.getValue()));
+			first = false;
+		}
+		sb.append('}');
+	}
+	
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for(int k = 0; k < s.length(); k++) {
+			char c = s.charAt(k);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,45 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// Interns the owners, names and descriptors that make up method and field
+// identifiers, numbering them densely so each identifier is just three ints.
+// Safe to use from several threads.
+class SymbolTable {
+	
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	
+	// Only grows, and a string is always in the array before it is in the map,
+	// like ClassHierarchy's class ids.
+	private volatile String[] strings = new String[1024];
+	private int size;
+	
+	int intern(String s) {
+		Integer id = ids.get(s);
+		if(id != null)
+			return id;
+		return add(s);
+	}
+	
+	private synchronized int add(String s) {
+		Integer id = ids.get(s);
+		if(id != null)
+			return id;
+		
+		if(size == strings.length)
+			strings = Arrays.copyOf(strings, size * 2);
+		strings[size] = s;
+		ids.put(s, size);
+		return size++;
+	}
+	
+	// Returns -1 if the string was never interned, without adding it.
+	int find(String s) {
+		Integer id = ids.get(s);
+		return id == null ? -1 : id;
+	}
+	
+	String get(int id) {
+		return strings[id];
+	}
+}
@@ -0,0 +1,69 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+
+// Writes a text file through a FileChannel, encoded the same way as a PrintWriter(File)
+// would: in the default charset, with the platform line separator after each line.
+// Lines are collected in a StringBuilder and encoded a large block at a time;
+// blocks that were encoded elsewhere (such as on other threads) can be written in between.
+// Not thread-safe.
+class TextFileWriter implements Closeable {
+	
+	static final String NEWLINE = System.lineSeparator();
+	
+	private static final int BLOCK_SIZE = 65536;
+	
+	private final FileChannel channel;
+	private final StringBuilder buffer = new StringBuilder(BLOCK_SIZE + 1024);
+	
+	TextFileWriter(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+	
+	// Returns the buffer to append a line to; the caller must finish it with NEWLINE.
+	StringBuilder line() throws IOException {
+		if(buffer.length() >= BLOCK_SIZE)
+			flush();
+		return buffer;
+	}
+	
+	void println(String line) throws IOException {
+		line().append(line).append(NEWLINE);
+	}
+	
+	// Writes an already encoded block, after everything before it.
+	void write(ByteBuffer block) throws IOException {
+		flush();
+		while(block.hasRemaining())
+			channel.write(block);
+	}
+	
+	// Safe to call from any thread.
+	static ByteBuffer encode(CharSequence text) {
+		return Charset.defaultCharset().encode(CharBuffer.wrap(text));
+	}
+	
+	private void flush() throws IOException {
+		if(buffer.length() == 0)
+			return;
+		ByteBuffer block = encode(buffer);
+		buffer.setLength(0);
+		while(block.hasRemaining())
+			channel.write(block);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}